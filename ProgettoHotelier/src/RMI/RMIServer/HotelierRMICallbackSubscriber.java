@@ -0,0 +1,151 @@
+package RMI.RMIServer;
+
+import RMI.RMIClient.HotelierClientInterface;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * La classe `HotelierRMICallbackSubscriber` rappresenta un client registrato per le callback RMI.
+ * Ogni client ha una propria coda limitata di notifiche in attesa, svuotata da un task del pool di consegna: le
+ * notifiche di un client vengono consegnate in ordine e al più una alla volta, mentre client diversi vengono serviti
+ * in parallelo, per cui un client lento o irraggiungibile non ritarda gli altri né il thread di ranking.
+ * Un client la cui coda è piena (non riesce a smaltire le notifiche) o la cui callback fallisce viene rimosso.
+ */
+public class HotelierRMICallbackSubscriber implements Runnable {
+
+    // Stub del client a cui consegnare le notifiche
+    private final HotelierClientInterface client;
+    // Città di interesse del client, normalizzate in minuscolo
+    private final Set<String> cities;
+    // Notifiche in attesa di consegna (ranking locali già serializzati in JSON)
+    private final Queue<String> pendingUpdates;
+    // Numero massimo di notifiche in attesa
+    private final int queueCapacity;
+    // Azione che rimuove il client dalle callback registrate
+    private final Consumer<HotelierRMICallbackSubscriber> evictAction;
+    // true se un task di consegna è in coda o in esecuzione sul pool (protetto dalla lock su pendingUpdates)
+    private boolean scheduled;
+    // true se il client è stato rimosso (protetto dalla lock su pendingUpdates)
+    private boolean evicted;
+
+    /**
+     * Costruttore della classe.
+     *
+     * @param client Lo stub del client.
+     * @param cities Le città di interesse del client.
+     * @param queueCapacity Il numero massimo di notifiche in attesa di consegna.
+     * @param evictAction L'azione che rimuove il client dalle callback registrate.
+     */
+    public HotelierRMICallbackSubscriber(HotelierClientInterface client, List<String> cities, int queueCapacity,
+                                         Consumer<HotelierRMICallbackSubscriber> evictAction) {
+        this.client = client;
+        this.cities = cities.stream().map(HotelierRMICallbackSubscriber::normalizeCity).collect(Collectors.toUnmodifiableSet());
+        this.queueCapacity = queueCapacity;
+        this.evictAction = evictAction;
+        pendingUpdates = new ArrayDeque<>();
+    }
+
+    /**
+     * Normalizza il nome di una città per il confronto (ignorando maiuscole/minuscole).
+     *
+     * @param city Il nome della città.
+     * @return Il nome in minuscolo.
+     */
+    public static String normalizeCity(String city) {
+        return city.toLowerCase(Locale.ROOT);
+    }
+
+    public HotelierClientInterface getClient() {
+        return client;
+    }
+
+    /**
+     * Restituisce le città di interesse del client, normalizzate in minuscolo.
+     *
+     * @return L'insieme non modificabile delle città.
+     */
+    public Set<String> getCities() {
+        return cities;
+    }
+
+    /**
+     * Accoda una notifica per il client e, se non è già attivo, avvia il task di consegna sul pool.
+     *
+     * @param serializedLocalRank Il ranking locale serializzato.
+     * @param dispatcher Il pool su cui eseguire la consegna.
+     * @return false se la coda del client è piena (il client va rimosso), true altrimenti.
+     */
+    public boolean offer(String serializedLocalRank, Executor dispatcher) {
+        synchronized (pendingUpdates) {
+            if (evicted) {
+                return true;
+            }
+            if (pendingUpdates.size() >= queueCapacity) {
+                return false;
+            }
+            pendingUpdates.add(serializedLocalRank);
+            if (scheduled) {
+                return true;
+            }
+            scheduled = true;
+        }
+        dispatcher.execute(this);
+        return true;
+    }
+
+    /**
+     * Segna il client come rimosso e scarta le notifiche in attesa.
+     */
+    public void evict() {
+        synchronized (pendingUpdates) {
+            evicted = true;
+            pendingUpdates.clear();
+        }
+    }
+
+    /**
+     * Verifica se il client è stato rimosso.
+     *
+     * @return true se il client è stato rimosso.
+     */
+    public boolean isEvicted() {
+        synchronized (pendingUpdates) {
+            return evicted;
+        }
+    }
+
+    /**
+     * Task di consegna: invia al client le notifiche in attesa, in ordine, finché la coda non è vuota.
+     * Se una callback fallisce (client irraggiungibile o risposta oltre il timeout RMI) il client viene rimosso.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            String serializedLocalRank;
+            synchronized (pendingUpdates) {
+                serializedLocalRank = pendingUpdates.poll();
+                if (serializedLocalRank == null || evicted) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            try {
+                client.notifyInterest(serializedLocalRank);
+            } catch (RemoteException e) {
+                evictAction.accept(this);
+                synchronized (pendingUpdates) {
+                    scheduled = false;
+                }
+                return;
+            }
+        }
+    }
+}
@@ -4,14 +4,18 @@ import RMI.RMIClient.HotelierClientInterface;
 import server.Handlers.HotelierServerUserManager;
 
 import java.rmi.RemoteException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * La classe `HotelierRMIServerImp` implementa l'interfaccia `HotelierServerInterface` e gestisce la logica del server RMI
  * per la registrazione degli utenti e la gestione delle callback dai client.
- * Essa mantiene una mappa di callback per ciascun client, in cui ogni client è associato a una lista di città di interesse.
+ * Essa mantiene una mappa di callback per ciascun client, in cui ogni client è associato alle sue città di interesse
+ * e alla sua coda di notifiche in attesa di consegna (vedi `HotelierRMICallbackSubscriber`), e un indice inverso che
+ * associa a ogni città (normalizzata in minuscolo) i client interessati, così che la notifica di una città visiti
+ * solo i suoi client.
  * La classe consente di registrare e deregistrare client per le callback relative alle città,
  * nonché di gestire la registrazione degli utenti per il sistema.
  */
@@ -20,9 +24,20 @@ public class HotelierRMIServerImp implements HotelierServerInterface {
     /**
      * Mappa che memorizza le callback dei client.
      * La chiave è l'interfaccia `HotelierClientInterface` che rappresenta il client RMI,
-     * mentre il valore è una lista di città di interesse per ciascun client.
+     * mentre il valore è il client registrato, con le sue città di interesse e la sua coda di notifiche.
      */
-    private final Map<HotelierClientInterface, List<String>> clientCallback;
+    private final Map<HotelierClientInterface, HotelierRMICallbackSubscriber> clientCallback;
+
+    /**
+     * Indice inverso delle callback: per ogni città (in minuscolo) l'insieme dei client interessati.
+     * Gli insiemi vuoti vengono rimossi; inserimenti e rimozioni avvengono con compute, in modo atomico per città.
+     */
+    private final Map<String, Set<HotelierRMICallbackSubscriber>> subscribersByCity;
+
+    /**
+     * Numero massimo di notifiche in attesa di consegna per ciascun client.
+     */
+    private final int callbackQueueSize;
 
     /**
      * Oggetto `HotelierServerUserManager` che gestisce la registrazione e l'autenticazione degli utenti.
@@ -35,9 +50,11 @@ public class HotelierRMIServerImp implements HotelierServerInterface {
      * Viene creato un oggetto `HotelierServerUserManager` per gestire la registrazione degli utenti.
      * Inoltre, viene inizializzata la mappa `clientCallback` per tenere traccia delle città di interesse per ciascun client.
      */
-    public HotelierRMIServerImp(){
+    public HotelierRMIServerImp(int callbackQueueSize){
         usersAuthenticated = HotelierServerUserManager.getInstance();  // Inizializza il gestore degli utenti.
-        clientCallback = new HashMap<>();  // Inizializza la mappa delle callback dei client.
+        clientCallback = new ConcurrentHashMap<>();  // Inizializza la mappa delle callback dei client.
+        subscribersByCity = new ConcurrentHashMap<>();  // Inizializza l'indice delle callback per città.
+        this.callbackQueueSize = callbackQueueSize;
     }
 
     /**
@@ -51,9 +68,29 @@ public class HotelierRMIServerImp implements HotelierServerInterface {
      * @throws RemoteException Se si verifica un errore durante l'interazione con il client RMI.
      */
     @Override
-    public synchronized void registerCallback(HotelierClientInterface callbackClient, List<String> cities) throws RemoteException {
+    public void registerCallback(HotelierClientInterface callbackClient, List<String> cities) throws RemoteException {
         // Aggiunge il client e la relativa lista di città di interesse alla mappa delle callback
-        clientCallback.put(callbackClient, cities);
+        var subscriber = new HotelierRMICallbackSubscriber(callbackClient, cities, callbackQueueSize, this::evictSubscriber);
+        var previous = clientCallback.put(callbackClient, subscriber);
+        // Una nuova registrazione dello stesso client sostituisce la precedente
+        if (previous != null) {
+            removeFromCityIndex(previous);
+            previous.evict();
+        }
+        // Aggiunge il client all'indice di ciascuna sua città
+        for (String city : subscriber.getCities()) {
+            subscribersByCity.compute(city, (key, subscribers) -> {
+                if (subscribers == null) {
+                    subscribers = ConcurrentHashMap.newKeySet();
+                }
+                subscribers.add(subscriber);
+                return subscribers;
+            });
+        }
+        // Se il client è stato rimosso mentre veniva indicizzato, lo toglie anche dall'indice
+        if (subscriber.isEvicted()) {
+            removeFromCityIndex(subscriber);
+        }
     }
 
     /**
@@ -78,18 +115,49 @@ public class HotelierRMIServerImp implements HotelierServerInterface {
      * @throws RemoteException Se si verifica un errore durante la deregistrazione del client.
      */
     @Override
-    public synchronized void unregisterCallback(HotelierClientInterface callbackClient) throws RemoteException {
+    public void unregisterCallback(HotelierClientInterface callbackClient) throws RemoteException {
         // Rimuove il client dalla mappa delle callback, cessando le sue registrazioni per le città di interesse
-        clientCallback.remove(callbackClient);
+        var subscriber = clientCallback.remove(callbackClient);
+        if (subscriber != null) {
+            removeFromCityIndex(subscriber);
+            subscriber.evict();
+        }
+    }
+
+    /**
+     * Rimuove un client registrato perché troppo lento o non più raggiungibile.
+     * Il client viene rimosso solo se la sua registrazione non è stata nel frattempo sostituita.
+     *
+     * @param subscriber Il client da rimuovere.
+     */
+    public void evictSubscriber(HotelierRMICallbackSubscriber subscriber) {
+        clientCallback.remove(subscriber.getClient(), subscriber);
+        removeFromCityIndex(subscriber);
+        subscriber.evict();
+    }
+
+    /**
+     * Rimuove un client dall'indice di ciascuna sua città, eliminando le città rimaste senza client.
+     *
+     * @param subscriber Il client da rimuovere dall'indice.
+     */
+    private void removeFromCityIndex(HotelierRMICallbackSubscriber subscriber) {
+        for (String city : subscriber.getCities()) {
+            subscribersByCity.computeIfPresent(city, (key, subscribers) -> {
+                subscribers.remove(subscriber);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
     }
 
     /**
-     * Restituisce la mappa delle callback registrate, che associa ogni client alla lista delle città di interesse.
-     * Questa mappa può essere utilizzata per vedere quali client sono registrati per ricevere aggiornamenti su quali città.
+     * Restituisce i client registrati per le callback di una città.
+     * L'insieme è concorrente e può essere iterato senza lock.
      *
-     * @return La mappa che associa ciascun client alla lista delle città di interesse.
+     * @param city La città, normalizzata in minuscolo.
+     * @return L'insieme dei client interessati alla città (vuoto se nessuno).
      */
-    public synchronized Map<HotelierClientInterface, List<String>> getClientsCallback() {
-        return clientCallback;  // Restituisce la mappa delle callback registrate.
+    public Set<HotelierRMICallbackSubscriber> getClientsCallback(String city) {
+        return subscribersByCity.getOrDefault(city, Set.of());  // Restituisce i client della città.
     }
 }
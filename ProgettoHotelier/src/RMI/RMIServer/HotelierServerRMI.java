@@ -4,23 +4,30 @@ import RMI.RMIClient.HotelierClientInterface;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import model.LocalHotelRanking;
-import org.apache.commons.lang3.StringUtils;
+import server.config.ConfigManager;
 
-import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * La classe `HotelierServerRMI` gestisce la connessione RMI (Remote Method Invocation) tra il client e il server Hotelier.
  * È responsabile per l'inizializzazione e l'esportazione dello stub che consente la comunicazione remota tra il client e il server.
  * Inoltre, gestisce la notifica ai client registrati riguardo ai cambiamenti nel ranking locale degli hotel.
+ * Le notifiche vengono consegnate da un pool dedicato (rmiCallbackThreads, config del server) attraverso la coda
+ * limitata di ciascun client (rmiCallbackQueueSize); le chiamate verso i client che non rispondono entro
+ * rmiCallbackTimeoutMs millisecondi falliscono e il client viene rimosso.
  */
 public class HotelierServerRMI {
 
+    // Valori usati se la config non è disponibile
+    private static final int DEFAULT_CALLBACK_THREADS = 4;
+    private static final int DEFAULT_CALLBACK_QUEUE_SIZE = 64;
+    private static final int DEFAULT_CALLBACK_TIMEOUT_MS = 5000;
+
     /**
      * La classe `HotelierRMIServerImp` fornisce l'implementazione dei metodi del server.
      */
@@ -31,6 +38,11 @@ public class HotelierServerRMI {
      */
     private final ObjectMapper objectMapper;
 
+    /**
+     * Pool di thread che consegna le notifiche ai client registrati.
+     */
+    private final ExecutorService callbackDispatcher;
+
     /**
      * Costruttore che inizializza il server RMI e lo esporta come oggetto remoto.
      * Registra il server nel registry RMI per permettere al client di connettersi.
@@ -40,7 +52,29 @@ public class HotelierServerRMI {
      * @throws Exception Se ci sono errori nell'inizializzazione o esportazione dello stub RMI.
      */
     public HotelierServerRMI(String rmiRemoteReference, int rmiPort) throws Exception {
-        serverImp = new HotelierRMIServerImp();
+        var serverConfig = ConfigManager.getServerConfig();
+        int callbackThreads = serverConfig != null && serverConfig.getRmiCallbackThreads() > 0
+                ? serverConfig.getRmiCallbackThreads()
+                : DEFAULT_CALLBACK_THREADS;
+        int callbackQueueSize = serverConfig != null && serverConfig.getRmiCallbackQueueSize() > 0
+                ? serverConfig.getRmiCallbackQueueSize()
+                : DEFAULT_CALLBACK_QUEUE_SIZE;
+        int callbackTimeoutMs = serverConfig != null && serverConfig.getRmiCallbackTimeoutMs() > 0
+                ? serverConfig.getRmiCallbackTimeoutMs()
+                : DEFAULT_CALLBACK_TIMEOUT_MS;
+        // Timeout di risposta delle chiamate RMI in uscita (le callback verso i client): va impostato prima che
+        // il runtime RMI apra la prima connessione verso un endpoint remoto
+        if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+            System.setProperty("sun.rmi.transport.tcp.responseTimeout", Integer.toString(callbackTimeoutMs));
+        }
+
+        AtomicInteger dispatcherThreadCount = new AtomicInteger();
+        callbackDispatcher = Executors.newFixedThreadPool(callbackThreads, runnable -> {
+            Thread thread = new Thread(runnable, "HotelierRmiCallback-" + dispatcherThreadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        serverImp = new HotelierRMIServerImp(callbackQueueSize);
         objectMapper = new ObjectMapper(); // Utilizziamo ObjectMapper di Jackson per serializzare e deserializzare oggetti
         HotelierServerInterface stub = (HotelierServerInterface) UnicastRemoteObject.exportObject(serverImp, 0);
         LocateRegistry.createRegistry(rmiPort);  // Crea un registry RMI sulla porta specificata
@@ -50,81 +84,31 @@ public class HotelierServerRMI {
 
     /**
      * Metodo che notifica i client registrati riguardo a un cambiamento nel ranking locale degli hotel.
-     * Questo metodo serializza il ranking in formato JSON e invia la notifica a tutti i client che hanno registrato interesse
-     * per la città in questione. Se il client non è più disponibile (lancia un'eccezione), viene rimosso dalla lista dei client.
+     * Il ranking viene serializzato in formato JSON una sola volta e accodato ai client che hanno registrato interesse
+     * per la città in questione, letti dall'indice per città senza visitare gli altri client; la consegna avviene in modo asincrono sul pool di consegna, per cui il metodo non
+     * attende i client. Un client la cui coda di notifiche è piena viene rimosso.
      *
      * @param localRank L'oggetto contenente il ranking locale da notificare ai client.
      * @throws JsonProcessingException Se si verifica un errore nella serializzazione del ranking.
      */
     public void notifyLocalRank(LocalHotelRanking localRank) throws JsonProcessingException {
 
-        // Ottengo la mappa di callback dei client (chiave: client, valore: lista città di interesse)
-        var clientsCallback = serverImp.getClientsCallback();
-
-        // Inizializzo una lista di client da rimuovere in caso di errore durante la notifica
-        List<HotelierClientInterface> clientsToRemove = new ArrayList<>();
-
-        // Acquisisco la lock sulla mappa dei callback per evitare accessi concorrenti
-        synchronized (clientsCallback) {
-
-            // Itero su tutti i client e le loro città di interesse
-            for (Map.Entry<HotelierClientInterface, List<String>> clientCallback : clientsCallback.entrySet()) {
-
-                // Ottengo la lista di città di interesse del client
-                var cities = clientCallback.getValue();
-                // Ottengo la città associata al ranking locale
-                var city = localRank.getCity();
-
-                // Verifico se la città del ranking è tra quelle di interesse del client
-                if (containsCity(cities, city)) {
-
-                    // Se il client è interessato alla città, procedo con la notifica
-                    try {
-                        // Serializzo l'oggetto localRank in formato JSON
-                        var serializedLocalRank = objectMapper.writeValueAsString(localRank);
-                        // Ottengo lo stub del client
-                        var clientInterface = clientCallback.getKey();
-
-                        try {
-                            // Invio la notifica del ranking locale al client
-                            clientInterface.notifyInterest(serializedLocalRank);
-                        } catch (RemoteException e) {
-                            // Se si verifica un'eccezione, aggiungo il client alla lista di rimozione
-                            clientsToRemove.add(clientInterface);
-                        }
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException("Errore nella serializzazione del local rank", e);
-                    }
-                }
-            }
-
-            // Rimuovo i client che hanno lanciato un'eccezione durante la notifica
-            for (HotelierClientInterface client : clientsToRemove) {
-                clientsCallback.remove(client);
-            }
+        // Ottengo la città associata al ranking locale e i soli client interessati alla città
+        var city = HotelierRMICallbackSubscriber.normalizeCity(localRank.getCity());
+        var subscribers = serverImp.getClientsCallback(city);
+        if (subscribers.isEmpty()) {
+            return;  // Nessun client interessato: il ranking non viene serializzato
         }
-    }
 
-    /**
-     * Metodo di supporto per verificare se una determinata città è presente nella lista delle città di interesse di un client.
-     * La ricerca è case-insensitive.
-     *
-     * @param cities La lista delle città di interesse.
-     * @param cityToCheck La città da verificare.
-     * @return true se la città è presente nella lista, false altrimenti.
-     */
-    private boolean containsCity(List<String> cities, String cityToCheck) {
+        // Serializzo l'oggetto localRank in formato JSON, una volta per tutti i client
+        var serializedLocalRank = objectMapper.writeValueAsString(localRank);
 
-        // Itero sulla lista delle città di interesse per verificare se la città passata è presente
-        for (String city : cities) {
-
-            // Confronto la città senza considerare la differenza tra maiuscole e minuscole
-            if (StringUtils.equalsIgnoreCase(city, cityToCheck)) {
-                return true;
+        // Itero sui client interessati (insieme concorrente, senza lock)
+        for (HotelierRMICallbackSubscriber subscriber : subscribers) {
+            // Accodo la notifica; se la coda del client è piena il client è troppo lento e viene rimosso
+            if (!subscriber.offer(serializedLocalRank, callbackDispatcher)) {
+                serverImp.evictSubscriber(subscriber);
             }
         }
-
-        // Se la città non è trovata, restituisco false
-        return false;
     }
 }
@@ -1,4 +1,5 @@
 package Response_Request_netPackets;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 /**
@@ -24,12 +25,33 @@ import com.fasterxml.jackson.annotation.JsonSubTypes;
         @JsonSubTypes.Type(value = insertReviewResponseMessage.class, name = "ins_reviewResponse"),
         @JsonSubTypes.Type(value = badgeLevelMessageRequest.class, name = "badgeLvl_Request"),
         @JsonSubTypes.Type(value = badgeLevelMessageResponse.class, name = "badgeLvl_Response"),
-        @JsonSubTypes.Type(value = errorResponseMessage.class, name = "error_Response")
+        @JsonSubTypes.Type(value = errorResponseMessage.class, name = "error_Response"),
+        @JsonSubTypes.Type(value = subscribeRankMessageRequest.class, name = "subscribeRank_Request"),
+        @JsonSubTypes.Type(value = subscribeRankResponseMessage.class, name = "subscribeRank_Response"),
+        @JsonSubTypes.Type(value = unsubscribeRankMessageRequest.class, name = "unsubscribeRank_Request"),
+        @JsonSubTypes.Type(value = unsubscribeRankResponseMessage.class, name = "unsubscribeRank_Response"),
+        @JsonSubTypes.Type(value = localRankPushMessage.class, name = "localRank_Push"),
+        @JsonSubTypes.Type(value = localRankSyncMessageRequest.class, name = "localRankSync_Request"),
+        @JsonSubTypes.Type(value = localRankSyncResponseMessage.class, name = "localRankSync_Response")
 })
 
 public abstract class Request_ResponseMessage {
    // public Request_ResponseMessage(){
 
+    // Identificativo di correlazione trasportato nell'intestazione del frame (non nel payload JSON):
+    // la risposta riporta lo stesso valore della richiesta, 0 se il client non usa il pipelining
+    @JsonIgnore
+    private int correlationID;
+
+    @JsonIgnore
+    public int getCorrelationID() {
+        return correlationID;
+    }
+
+    @JsonIgnore
+    public void setCorrelationID(int correlationID) {
+        this.correlationID = correlationID;
+    }
     }
 
 
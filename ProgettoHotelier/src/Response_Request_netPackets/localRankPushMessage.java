@@ -0,0 +1,33 @@
+package Response_Request_netPackets;
+
+import model.LocalRankMove;
+
+import java.util.List;
+
+// Pacchetto inviato dal server senza richiesta (identificativo di correlazione 0) ai client iscritti
+// agli aggiornamenti del rank locale di una città. Contiene solo gli hotel che hanno cambiato posizione e la
+// versione del ranking a cui porta; il client che non ha la versione precedente richiede il ranking completo
+public class localRankPushMessage extends Request_ResponseMessage {
+    private  String city;
+    private  long version;
+    private  List<LocalRankMove> moves;
+
+    public localRankPushMessage() {}
+    public localRankPushMessage(String city, long version, List<LocalRankMove> moves){
+        this.city = city;
+        this.version = version;
+        this.moves = moves;
+    }
+
+    public String getCity(){
+        return city;
+    }
+
+    public long getVersion(){
+        return version;
+    }
+
+    public List<LocalRankMove> getMoves(){
+        return moves;
+    }
+}
@@ -0,0 +1,15 @@
+package Response_Request_netPackets;
+
+// Richiesta del ranking locale completo di una città, inviata dal client che ha perso una versione degli aggiornamenti
+public class localRankSyncMessageRequest extends Request_ResponseMessage {
+    private  String city;
+
+    public localRankSyncMessageRequest() {}
+    public localRankSyncMessageRequest(String city){
+        this.city = city;
+    }
+
+    public String getCity(){
+        return city;
+    }
+}
@@ -0,0 +1,22 @@
+package Response_Request_netPackets;
+
+import model.LocalHotelRanking;
+
+public class localRankSyncResponseMessage extends Request_ResponseMessage {
+    private  LocalHotelRanking localRank; // Ranking locale completo della città
+    private  long version; // Versione del ranking, a cui applicare gli aggiornamenti successivi
+
+    public localRankSyncResponseMessage() {}
+    public localRankSyncResponseMessage(LocalHotelRanking localRank, long version){
+        this.localRank = localRank;
+        this.version = version;
+    }
+
+    public LocalHotelRanking getLocalRank(){
+        return localRank;
+    }
+
+    public long getVersion(){
+        return version;
+    }
+}
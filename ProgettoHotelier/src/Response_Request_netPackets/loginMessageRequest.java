@@ -3,11 +3,16 @@ package Response_Request_netPackets;
 public class loginMessageRequest extends Request_ResponseMessage {
     private  String username;
     private  String password;
+    private  String sessionToken; // Token di sessione di un login precedente (null se non disponibile)
 
     public loginMessageRequest() {}
     public loginMessageRequest(String username, String password){
+        this(username, password, null);
+    }
+    public loginMessageRequest(String username, String password, String sessionToken){
         this.username = username;
         this.password = password;
+        this.sessionToken = sessionToken;
     }
 
     //public loginMessageRequest(){}
@@ -18,4 +23,7 @@ public class loginMessageRequest extends Request_ResponseMessage {
     public String getPassword(){
         return password;
     }
+    public String getSessionToken(){
+        return sessionToken;
+    }
 }
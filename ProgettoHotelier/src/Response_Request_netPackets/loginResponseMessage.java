@@ -2,13 +2,21 @@ package Response_Request_netPackets;
 
 public class loginResponseMessage extends Request_ResponseMessage {
     private  String loginResponse;
+    private  String sessionToken; // Token di sessione da presentare ai login successivi
 
     public loginResponseMessage() {}
     public loginResponseMessage(String loginResponse){
+        this(loginResponse, null);
+    }
+    public loginResponseMessage(String loginResponse, String sessionToken){
         this.loginResponse = loginResponse;
+        this.sessionToken = sessionToken;
     }
 
     public String getLoginResponse(){
         return loginResponse;
     }
+    public String getSessionToken(){
+        return sessionToken;
+    }
 }
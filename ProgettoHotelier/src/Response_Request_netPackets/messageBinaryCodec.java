@@ -0,0 +1,303 @@
+package Response_Request_netPackets;
+
+import model.Hotel;
+import model.HotelRate;
+import model.LocalHotelRanking;
+import model.LocalRankMove;
+import model.Utente;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class messageBinaryCodec {
+    /**
+     * messageBinaryCodec è una classe statica che codifica e decodifica i pacchetti di rete in un formato binario
+     * compatto, alternativo al JSON. Il tipo del pacchetto non viene scritto nel payload ma è dato dall'ID pacchetto
+     * dell'intestazione (vedi messageSerialization.getIDFromPacket), per cui ogni pacchetto contiene solo i suoi campi:
+     * • stringhe: lunghezza in byte (int, -1 per null) seguita dai byte UTF-8
+     * • interi, float e double: rappresentazione big-endian di DataOutput
+     * • liste: numero di elementi (int, -1 per null) seguito dagli elementi
+     */
+
+    // Dimensione minima in byte di un hotel codificato (solo il flag di presenza)
+    private static final int HOTEL_MIN_BYTES = 1;
+
+    // Codifica il pacchetto passato nel DataOutput, in base al suo ID pacchetto
+    public static void encode(Request_ResponseMessage packet, DataOutput output) throws IOException {
+        switch (packet) {
+            case loginMessageRequest loginPacket -> {
+                writeString(output, loginPacket.getUsername());
+                writeString(output, loginPacket.getPassword());
+                writeString(output, loginPacket.getSessionToken());
+            }
+            case loginResponseMessage loginResponsePacket -> {
+                writeString(output, loginResponsePacket.getLoginResponse());
+                writeString(output, loginResponsePacket.getSessionToken());
+            }
+            case logoutMessageRequest logoutPacket -> { }
+            case logoutResponseMessage logoutResponsePacket -> writeString(output, logoutResponsePacket.getLogoutResponse());
+            case searchHotelMessageRequest hotelPacket -> {
+                writeString(output, hotelPacket.getHotelName());
+                writeString(output, hotelPacket.getCity());
+            }
+            case searchHotelResponseMessage hotelResponsePacket -> writeHotel(output, hotelResponsePacket.getHotels());
+            case searchAllHotelsMessage hotelListPacket -> writeString(output, hotelListPacket.getCity());
+            case searchAllHotelsResponseMessage hotelListResponsePacket -> {
+                List<Hotel> hotels = hotelListResponsePacket.getHotels();
+                output.writeInt(hotels == null ? -1 : hotels.size());
+                if (hotels != null) {
+                    for (Hotel hotel : hotels) {
+                        writeHotel(output, hotel);
+                    }
+                }
+            }
+            case insertReviewRequestMessage reviewPacket -> {
+                writeString(output, reviewPacket.getHotelName());
+                writeString(output, reviewPacket.getCity());
+                output.writeInt(reviewPacket.getRate());
+                writeHotelRate(output, reviewPacket.getRatings());
+            }
+            case insertReviewResponseMessage reviewResponsePacket -> writeString(output, reviewResponsePacket.getResponseMessage());
+            case badgeLevelMessageRequest badgePacket -> { }
+            case badgeLevelMessageResponse badgeResponsePacket -> {
+                var badge = badgeResponsePacket.getBadge();
+                output.writeInt(badge == null ? -1 : badge.ordinal());
+            }
+            case errorResponseMessage errorResponsePacket -> writeString(output, errorResponsePacket.getErrorMessageResponse());
+            case subscribeRankMessageRequest subscribePacket -> {
+                List<String> cities = subscribePacket.getCities();
+                output.writeInt(cities == null ? -1 : cities.size());
+                if (cities != null) {
+                    for (String city : cities) {
+                        writeString(output, city);
+                    }
+                }
+            }
+            case subscribeRankResponseMessage subscribeResponsePacket -> writeString(output, subscribeResponsePacket.getSubscribeResponse());
+            case unsubscribeRankMessageRequest unsubscribePacket -> { }
+            case unsubscribeRankResponseMessage unsubscribeResponsePacket -> writeString(output, unsubscribeResponsePacket.getUnsubscribeResponse());
+            case localRankPushMessage localRankPacket -> {
+                writeString(output, localRankPacket.getCity());
+                output.writeLong(localRankPacket.getVersion());
+                List<LocalRankMove> moves = localRankPacket.getMoves();
+                output.writeInt(moves == null ? -1 : moves.size());
+                if (moves != null) {
+                    for (LocalRankMove move : moves) {
+                        output.writeInt(move.getHotelId());
+                        output.writeInt(move.getOldPosition());
+                        output.writeInt(move.getNewPosition());
+                    }
+                }
+            }
+            case localRankSyncMessageRequest localRankSyncPacket -> writeString(output, localRankSyncPacket.getCity());
+            case localRankSyncResponseMessage localRankSyncResponsePacket -> {
+                LocalHotelRanking localRank = localRankSyncResponsePacket.getLocalRank();
+                output.writeBoolean(localRank != null);
+                if (localRank != null) {
+                    writeString(output, localRank.getCity());
+                    List<Hotel> hotels = localRank.getHotels();
+                    output.writeInt(hotels == null ? -1 : hotels.size());
+                    if (hotels != null) {
+                        for (Hotel hotel : hotels) {
+                            writeHotel(output, hotel);
+                        }
+                    }
+                }
+                output.writeLong(localRankSyncResponsePacket.getVersion());
+            }
+            default -> throw new IOException("Pacchetto non supportato dal codec binario: " + packet.getClass().getSimpleName());
+        }
+    }
+
+    // Decodifica dal DataInput il pacchetto corrispondente all'ID pacchetto passato
+    public static Request_ResponseMessage decode(int packetID, DataInput input) throws IOException {
+        return switch (packetID) {
+            case 0 -> new loginMessageRequest(readString(input), readString(input), readString(input));
+            case 1 -> new loginResponseMessage(readString(input), readString(input));
+            case 2 -> new logoutMessageRequest();
+            case 3 -> new logoutResponseMessage(readString(input));
+            case 4 -> new searchHotelMessageRequest(readString(input), readString(input));
+            case 5 -> new searchHotelResponseMessage(readHotel(input));
+            case 6 -> new searchAllHotelsMessage(readString(input));
+            case 7 -> {
+                int size = readCount(input, HOTEL_MIN_BYTES);
+                List<Hotel> hotels = null;
+                if (size >= 0) {
+                    hotels = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        hotels.add(readHotel(input));
+                    }
+                }
+                yield new searchAllHotelsResponseMessage(hotels);
+            }
+            case 8 -> new insertReviewRequestMessage(readString(input), readString(input), input.readInt(), readHotelRate(input));
+            case 9 -> new insertReviewResponseMessage(readString(input));
+            case 10 -> new badgeLevelMessageRequest();
+            case 11 -> {
+                int badge = input.readInt();
+                Utente.UserBadge[] badges = Utente.UserBadge.values();
+                if (badge < -1 || badge >= badges.length) {
+                    throw new IOException("Badge non valido: " + badge);
+                }
+                yield new badgeLevelMessageResponse(badge < 0 ? null : badges[badge]);
+            }
+            case 12 -> new errorResponseMessage(readString(input));
+            case 13 -> {
+                int size = readCount(input, Integer.BYTES);
+                List<String> cities = null;
+                if (size >= 0) {
+                    cities = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        cities.add(readString(input));
+                    }
+                }
+                yield new subscribeRankMessageRequest(cities);
+            }
+            case 14 -> new subscribeRankResponseMessage(readString(input));
+            case 15 -> new unsubscribeRankMessageRequest();
+            case 16 -> new unsubscribeRankResponseMessage(readString(input));
+            case 17 -> {
+                String city = readString(input);
+                long version = input.readLong();
+                int size = readCount(input, 3 * Integer.BYTES);
+                List<LocalRankMove> moves = null;
+                if (size >= 0) {
+                    moves = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        moves.add(new LocalRankMove(input.readInt(), input.readInt(), input.readInt()));
+                    }
+                }
+                yield new localRankPushMessage(city, version, moves);
+            }
+            case 18 -> new localRankSyncMessageRequest(readString(input));
+            case 19 -> {
+                LocalHotelRanking localRank = null;
+                if (input.readBoolean()) {
+                    localRank = new LocalHotelRanking(readString(input));
+                    int size = readCount(input, HOTEL_MIN_BYTES);
+                    if (size >= 0) {
+                        for (int i = 0; i < size; i++) {
+                            localRank.add(readHotel(input));
+                        }
+                    } else {
+                        localRank.setHotels(null);
+                    }
+                }
+                yield new localRankSyncResponseMessage(localRank, input.readLong());
+            }
+            default -> throw new IOException("ID pacchetto non supportato dal codec binario: " + packetID);
+        };
+    }
+
+    // Scrive un hotel (o null) nel DataOutput; usato anche dal catalogo binario degli hotel del server
+    public static void writeHotel(DataOutput output, Hotel hotel) throws IOException {
+        output.writeBoolean(hotel != null);
+        if (hotel == null) {
+            return;
+        }
+        output.writeInt(hotel.getId());
+        writeString(output, hotel.getName());
+        writeString(output, hotel.getDescription());
+        writeString(output, hotel.getCity());
+        writeString(output, hotel.getPhone());
+        List<String> services = hotel.getServices();
+        output.writeInt(services == null ? -1 : services.size());
+        if (services != null) {
+            for (String service : services) {
+                writeString(output, service);
+            }
+        }
+        output.writeFloat(hotel.getRate());
+        writeHotelRate(output, hotel.getRatings());
+        output.writeInt(hotel.getReviewCount());
+        output.writeDouble(hotel.getRank());
+        output.writeInt(hotel.getLocalRank());
+    }
+
+    // Legge un hotel (o null) dal DataInput; usato anche dal catalogo binario degli hotel del server
+    public static Hotel readHotel(DataInput input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        int id = input.readInt();
+        String name = readString(input);
+        String description = readString(input);
+        String city = readString(input);
+        String phone = readString(input);
+        int servicesCount = readCount(input, Integer.BYTES);
+        List<String> services = new ArrayList<>(Math.max(servicesCount, 0));
+        for (int i = 0; i < servicesCount; i++) {
+            services.add(readString(input));
+        }
+        float rate = input.readFloat();
+        HotelRate ratings = readHotelRate(input);
+
+        Hotel hotel = new Hotel(id, name, description, city, phone, services, 0, ratings == null ? new HotelRate() : ratings);
+        hotel.setRate(rate);
+        hotel.setReviewCount(input.readInt());
+        hotel.setRankLevel(input.readDouble());
+        hotel.setLocalRanking(input.readInt());
+        return hotel;
+    }
+
+    // Scrive le valutazioni di un hotel (o null) nel DataOutput
+    private static void writeHotelRate(DataOutput output, HotelRate rating) throws IOException {
+        output.writeBoolean(rating != null);
+        if (rating != null) {
+            output.writeFloat(rating.getCleaning());
+            output.writeFloat(rating.getPosition());
+            output.writeFloat(rating.getServices());
+            output.writeFloat(rating.getQuality());
+        }
+    }
+
+    // Legge le valutazioni di un hotel (o null) dal DataInput
+    private static HotelRate readHotelRate(DataInput input) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        return new HotelRate(input.readFloat(), input.readFloat(), input.readFloat(), input.readFloat());
+    }
+
+    // Scrive una stringa (o null) come lunghezza in byte seguita dai byte UTF-8
+    public static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    // Legge una stringa (o null) scritta con writeString
+    public static String readString(DataInput input) throws IOException {
+        int length = readCount(input, 1);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Legge una lunghezza o un numero di elementi (-1 per null) e verifica che sia compatibile con i byte rimasti
+    // nel payload, dato che ogni elemento occupa almeno minElementBytes byte: i valori arrivano dalla rete e un
+    // valore non valido non deve causare allocazioni enormi, ma chiudere la connessione con una IOException
+    private static int readCount(DataInput input, int minElementBytes) throws IOException {
+        int count = input.readInt();
+        if (count < -1) {
+            throw new IOException("Lunghezza non valida: " + count);
+        }
+        long remaining = input instanceof InputStream stream ? stream.available() : Integer.MAX_VALUE;
+        if ((long) count * minElementBytes > remaining) {
+            throw new IOException("Lunghezza " + count + " oltre i " + remaining + " byte rimasti nel payload");
+        }
+        return count;
+    }
+}
@@ -34,6 +34,13 @@ public class messageSerialization {
                 case 10 -> objectMapper.readValue(serializedPacket,badgeLevelMessageRequest.class);
                 case 11 -> objectMapper.readValue(serializedPacket, badgeLevelMessageResponse.class);
                 case 12 -> objectMapper.readValue(serializedPacket, errorResponseMessage.class);
+                case 13 -> objectMapper.readValue(serializedPacket, subscribeRankMessageRequest.class);
+                case 14 -> objectMapper.readValue(serializedPacket, subscribeRankResponseMessage.class);
+                case 15 -> objectMapper.readValue(serializedPacket, unsubscribeRankMessageRequest.class);
+                case 16 -> objectMapper.readValue(serializedPacket, unsubscribeRankResponseMessage.class);
+                case 17 -> objectMapper.readValue(serializedPacket, localRankPushMessage.class);
+                case 18 -> objectMapper.readValue(serializedPacket, localRankSyncMessageRequest.class);
+                case 19 -> objectMapper.readValue(serializedPacket, localRankSyncResponseMessage.class);
                 default -> null;
             };
         } catch (Exception e) {
@@ -42,6 +49,36 @@ public class messageSerialization {
         }
     }
 
+    // Il secondo intero dell'intestazione del frame contiene l'ID del pacchetto nei 15 bit bassi,
+    // il flag di codifica binaria nel bit 15 e l'identificativo di correlazione (0 = nessuna correlazione) nei 16 bit alti
+    public static final int MAX_CORRELATION_ID = 0xFFFF;
+    private static final int BINARY_ENCODING_FLAG = 0x8000;
+
+    // Compone il secondo intero dell'intestazione a partire da ID pacchetto e identificativo di correlazione (payload JSON)
+    public static int composeHeaderID(int packetID, int correlationID) {
+        return composeHeaderID(packetID, correlationID, false);
+    }
+
+    // Compone il secondo intero dell'intestazione indicando se il payload è codificato con messageBinaryCodec
+    public static int composeHeaderID(int packetID, int correlationID, boolean binaryEncoded) {
+        return (correlationID << 16) | (binaryEncoded ? BINARY_ENCODING_FLAG : 0) | (packetID & 0x7FFF);
+    }
+
+    // Estrae l'ID del pacchetto dal secondo intero dell'intestazione
+    public static int getPacketIDFromHeader(int headerID) {
+        return headerID & 0x7FFF;
+    }
+
+    // Indica se il payload del frame è codificato con messageBinaryCodec (altrimenti è JSON)
+    public static boolean isBinaryEncoded(int headerID) {
+        return (headerID & BINARY_ENCODING_FLAG) != 0;
+    }
+
+    // Estrae l'identificativo di correlazione dal secondo intero dell'intestazione
+    public static int getCorrelationIDFromHeader(int headerID) {
+        return headerID >>> 16;
+    }
+
     // Restituisce l'ID del pacchetto relativo al pacchetto passato, o -1 se il pacchetto non è supportato
     public static int getIDFromPacket(Request_ResponseMessage packet) {
         // Filtra in base all'istanza del pacchetto
@@ -59,6 +96,13 @@ public class messageSerialization {
             case badgeLevelMessageRequest badgePacket -> 10;
             case badgeLevelMessageResponse badgeResponsePacket -> 11;
             case errorResponseMessage errorResponseRequest -> 12;
+            case subscribeRankMessageRequest subscribePacket -> 13;
+            case subscribeRankResponseMessage subscribeResponsePacket -> 14;
+            case unsubscribeRankMessageRequest unsubscribePacket -> 15;
+            case unsubscribeRankResponseMessage unsubscribeResponsePacket -> 16;
+            case localRankPushMessage localRankPacket -> 17;
+            case localRankSyncMessageRequest localRankSyncPacket -> 18;
+            case localRankSyncResponseMessage localRankSyncResponsePacket -> 19;
             default -> -1;
         };
     }
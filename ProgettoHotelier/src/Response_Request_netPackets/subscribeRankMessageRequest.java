@@ -0,0 +1,16 @@
+package Response_Request_netPackets;
+
+import java.util.List;
+
+public class subscribeRankMessageRequest extends Request_ResponseMessage {
+    private  List<String> cities; // Città di cui ricevere gli aggiornamenti del rank locale
+
+    public subscribeRankMessageRequest() {}
+    public subscribeRankMessageRequest(List<String> cities){
+        this.cities = cities;
+    }
+
+    public List<String> getCities(){
+        return cities;
+    }
+}
@@ -0,0 +1,14 @@
+package Response_Request_netPackets;
+
+public class subscribeRankResponseMessage extends Request_ResponseMessage {
+    private  String subscribeResponse;
+
+    public subscribeRankResponseMessage() {}
+    public subscribeRankResponseMessage(String subscribeResponse){
+        this.subscribeResponse = subscribeResponse;
+    }
+
+    public String getSubscribeResponse(){
+        return subscribeResponse;
+    }
+}
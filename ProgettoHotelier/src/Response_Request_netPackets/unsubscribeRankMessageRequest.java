@@ -0,0 +1,7 @@
+package Response_Request_netPackets;
+
+public class unsubscribeRankMessageRequest extends Request_ResponseMessage {
+    /**
+     * classe vuota
+     */
+}
@@ -0,0 +1,14 @@
+package Response_Request_netPackets;
+
+public class unsubscribeRankResponseMessage extends Request_ResponseMessage {
+    private  String unsubscribeResponse;
+
+    public unsubscribeRankResponseMessage() {}
+    public unsubscribeRankResponseMessage(String unsubscribeResponse){
+        this.unsubscribeResponse = unsubscribeResponse;
+    }
+
+    public String getUnsubscribeResponse(){
+        return unsubscribeResponse;
+    }
+}
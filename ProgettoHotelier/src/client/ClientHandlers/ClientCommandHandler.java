@@ -22,7 +22,7 @@ public class ClientCommandHandler {
     // Costruttore: inizializza gli handler
     public ClientCommandHandler(HotelierClientRMI clientRMI) throws Exception {
         this.clientRMI = clientRMI;  // RMI handler passato come parametro
-        tcpComm_Handler = new TCPCommandHandlerClient();  // Crea l'istanza per i comandi TCP
+        tcpComm_Handler = TCPCommandHandlerClient.connect();  // Crea la connessione per i comandi TCP
         rmiCommHandler = new rmiClientCommandHandler(clientRMI);  // Crea l'istanza per i comandi RMI
     }
 
@@ -86,7 +86,7 @@ public class ClientCommandHandler {
      */
     private String handleShowLocalRanks(HotelierCommands_Client cmd) {
         // Utilizza l'oggetto RMI per ottenere la lista degli hotel ordinata per rank locale
-        return clientRMI.localRankMapToString();  // Restituisce la lista di hotel ordinata
+        return tcpComm_Handler.localRankMapToString();  // Restituisce la lista di hotel ordinata
     }
 
     /**
@@ -9,51 +9,346 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import model.Hotel;
 import model.HotelRate;
+import model.LocalRankMove;
 import utils.JsonUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 public class TCPCommandHandlerClient {
+    // Numero massimo di richieste in volo sulla connessione
+    private static final int MAX_IN_FLIGHT = 4096;
+    // Messaggio restituito in caso di errore di connessione
+    private static final String CONNECTION_ERROR = "Errrore di Conessione: Impossibile stabilire connessione con server TCP di Hotelier";
+
     private Socket socket; // Socket per la connessione TCP al server
     private OutputStream outputStream; // Stream di output per inviare dati al server
     private InputStream inputStream; // Stream di input per ricevere dati dal server
     private ObjectMapper objectMapper; // Utilizzato per serializzare e deserializzare i pacchetti JSON
+    private final boolean binaryCodec; // Se true i pacchetti vengono codificati in binario invece che in JSON
+    private final Map<Integer, CompletableFuture<Request_ResponseMessage>> pendingRequests; // Richieste in attesa di risposta, per identificativo di correlazione
+    private final Semaphore inFlight; // Limita il numero di richieste in volo
+    private int nextCorrelationID; // Prossimo identificativo di correlazione da assegnare
+    private volatile IOException connectionError; // Errore che ha chiuso la connessione, se presente
+    // Token di sessione ricevuti al login, per username: condivisi tra le connessioni, così che un client che si
+    // ricollega al server possa autenticarsi senza che il server ricalcoli l'hash della password
+    private static final Map<String, String> sessionTokens = new ConcurrentHashMap<>();
+    // Rank locali delle città di interesse, aggiornati dai pacchetti inviati dal server senza richiesta
+    // (per città in minuscolo)
+    private final Map<String, CachedLocalRank> localRankMap = new LinkedHashMap<>();
+
+    // Copia locale del rank di una città: gli hotel in ordine e la versione del ranking a cui corrispondono
+    private static class CachedLocalRank {
+        private final String city; // Nome della città
+        private List<Hotel> hotels; // Hotel in ordine di rank locale, null finché non è stato ricevuto il ranking completo
+        private long version; // Versione del ranking
+        private boolean syncing; // true mentre è in corso la richiesta del ranking completo
+        // Aggiornamenti ricevuti durante la richiesta del ranking completo, da riapplicare una volta ricevuto
+        private final List<localRankPushMessage> pendingPushes = new ArrayList<>();
+
+        private CachedLocalRank(String city) {
+            this.city = city;
+        }
+    }
+
+    // Crea la connessione TCP al server e avvia il thread di ricezione delle risposte
+    public static TCPCommandHandlerClient connect() throws Exception {
+        TCPCommandHandlerClient handler = new TCPCommandHandlerClient();
+        // Il thread viene avviato dopo la costruzione, così non vede mai l'oggetto costruito solo in parte
+        Thread receiver = new Thread(handler::receiveLoop, "HotelierClientTcpReceiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        return handler;
+    }
 
     // Costruttore che inizializza la connessione TCP e i flussi di I/O
-    public TCPCommandHandlerClient() throws Exception {
+    private TCPCommandHandlerClient() throws Exception {
         var clientconfig = ClientConfigManager.getClientConfig(); // Recupera la configurazione del client
         this.socket = new Socket(clientconfig.getServerAddress(), clientconfig.getTcpPort()); // Crea il socket di connessione
         outputStream = socket.getOutputStream(); // Ottiene l'output stream dal socket
         inputStream = socket.getInputStream(); // Ottiene l'input stream dal socket
         objectMapper = new ObjectMapper(); // Crea l'ObjectMapper per la serializzazione JSON
         objectMapper.enable(SerializationFeature.INDENT_OUTPUT); // Abilita l'indentazione per la stampa dei JSON
+        binaryCodec = clientconfig.isBinaryCodec(); // Codifica negoziata con il server inviando frame binari
+        pendingRequests = new ConcurrentHashMap<>();
+        inFlight = new Semaphore(MAX_IN_FLIGHT);
+        nextCorrelationID = 1;
     }
 
     // Gestisce il comando TCP ricevuto, crea il pacchetto appropriato e invia/riceve i dati
     public String TCPCommandHandler(HotelierCommands_Client command) {
+        CompletableFuture<String> response = TCPCommandHandlerAsync(command);
+        if (response == null) {
+            return null;
+        }
+        try {
+            // Attende la risposta dal server
+            return response.join();
+        } catch (CompletionException e) {
+            // In caso di errore di connessione, restituisce un messaggio di errore
+            return CONNECTION_ERROR;
+        }
+    }
+
+    // Versione asincrona di TCPCommandHandler: invia la richiesta senza attendere la risposta, permettendo
+    // di avere più richieste in volo sulla stessa connessione. Restituisce null se il comando non è supportato
+    public CompletableFuture<String> TCPCommandHandlerAsync(HotelierCommands_Client command) {
+        // Crea il pacchetto di richiesta a partire dal comando
+        Request_ResponseMessage requestPkt = createPacket(command);
+        if (requestPkt == null) {
+            return null;
+        }
+        CompletableFuture<Request_ResponseMessage> response = sendRequest(requestPkt);
+        if (requestPkt instanceof loginMessageRequest loginPkt) {
+            // Memorizza il token di sessione rilasciato dal server, da presentare ai login successivi dello stesso utente
+            response = response.thenApply(packet -> {
+                if (packet instanceof loginResponseMessage loginResponse && loginResponse.getSessionToken() != null) {
+                    sessionTokens.put(loginPkt.getUsername().toLowerCase(), loginResponse.getSessionToken());
+                }
+                return packet;
+            });
+        }
+        // Elabora la risposta e la restituisce come stringa
+        return response.thenApply(this::getRespone);
+    }
+
+    // Invia un pacchetto di richiesta e restituisce una future completata alla ricezione della risposta
+    // con lo stesso identificativo di correlazione
+    public CompletableFuture<Request_ResponseMessage> sendRequest(Request_ResponseMessage requestPkt) {
+        CompletableFuture<Request_ResponseMessage> response = new CompletableFuture<>();
         try {
-            // Crea il pacchetto di richiesta a partire dal comando
-            Request_ResponseMessage requestPkt = createPacket(command);
+            inFlight.acquire(); // Attende se ci sono già troppe richieste in volo
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.completeExceptionally(e);
+            return response;
+        }
+        response.whenComplete((packet, error) -> inFlight.release());
 
-            if (requestPkt != null) {
+        try {
+            synchronized (outputStream) {
+                if (connectionError != null) {
+                    throw connectionError;
+                }
+                // Assegna un identificativo di correlazione non in uso e registra la richiesta in attesa
+                int correlationID = nextCorrelationID();
+                pendingRequests.put(correlationID, response);
+                requestPkt.setCorrelationID(correlationID);
                 // Invia il pacchetto al server
                 sendPacket(requestPkt);
-                // Riceve la risposta dal server
+            }
+        } catch (IOException e) {
+            pendingRequests.remove(requestPkt.getCorrelationID());
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    // Restituisce il prossimo identificativo di correlazione libero (tra 1 e MAX_CORRELATION_ID)
+    private int nextCorrelationID() {
+        int correlationID;
+        do {
+            correlationID = nextCorrelationID;
+            nextCorrelationID = nextCorrelationID == messageSerialization.MAX_CORRELATION_ID ? 1 : nextCorrelationID + 1;
+        } while (pendingRequests.containsKey(correlationID));
+        return correlationID;
+    }
+
+    // Riceve le risposte dal server e completa le richieste corrispondenti, finché la connessione è aperta
+    private void receiveLoop() {
+        IOException error;
+        try {
+            while (true) {
                 Request_ResponseMessage responsePk = receivePacket();
-                // Elabora e restituisce la risposta come stringa
-                return getRespone(responsePk);
+                // Aggiornamento del rank locale di una città di interesse, non associato ad alcuna richiesta
+                if (responsePk instanceof localRankPushMessage pushPk) {
+                    applyLocalRankUpdate(pushPk);
+                    continue;
+                }
+                CompletableFuture<Request_ResponseMessage> response = pendingRequests.remove(responsePk.getCorrelationID());
+                if (response != null) {
+                    response.complete(responsePk);
+                }
             }
         } catch (IOException e) {
+            error = e; // Connessione chiusa
+        } catch (Throwable e) {
+            // Errore inatteso nella ricezione: la connessione non è più utilizzabile
+            e.printStackTrace();
+            error = new IOException("Errore nella ricezione delle risposte", e);
+        }
+        // Chiude la connessione, così un invio bloccato in scrittura termina e rilascia la lock dello stream
+        close();
+        // Registra l'errore e fallisce le richieste in attesa con la stessa lock usata per registrarle, così
+        // nessuna richiesta può essere registrata dopo lo svuotamento senza vedere l'errore
+        synchronized (outputStream) {
+            connectionError = error;
+            for (var response : pendingRequests.values()) {
+                response.completeExceptionally(error);
+            }
+            pendingRequests.clear();
+        }
+    }
+
+    // Iscrive il client agli aggiornamenti del rank locale delle città di interesse, inviati dal server sulla
+    // stessa connessione TCP. Restituisce la risposta del server
+    public String subscribeRank(List<String> cities) {
+        return sendRequestAndWait(new subscribeRankMessageRequest(cities));
+    }
+
+    // Annulla l'iscrizione agli aggiornamenti del rank locale e svuota la mappa dei rank ricevuti
+    public String unsubscribeRank() {
+        String response = sendRequestAndWait(new unsubscribeRankMessageRequest());
+        resetLocalRankMap();
+        return response;
+    }
+
+    // Invia una richiesta, ne attende la risposta e la restituisce come stringa
+    private String sendRequestAndWait(Request_ResponseMessage requestPkt) {
+        try {
+            return getRespone(sendRequest(requestPkt).join());
+        } catch (CompletionException e) {
             // In caso di errore di connessione, restituisce un messaggio di errore
-            return "Errrore di Conessione: Impossibile stabilire connessione con server TCP di Hotelier";
+            return CONNECTION_ERROR;
+        }
+    }
+
+    // Applica alla copia locale del rank di una città gli spostamenti ricevuti dal server. Se manca la versione
+    // precedente (aggiornamento perso o primo aggiornamento della città) richiede il ranking completo
+    private void applyLocalRankUpdate(localRankPushMessage pushPk) {
+        synchronized (localRankMap) {
+            var localRank = localRankMap.computeIfAbsent(pushPk.getCity().toLowerCase(Locale.ROOT), key -> new CachedLocalRank(pushPk.getCity()));
+            applyLocalRankPush(localRank, pushPk);
+        }
+    }
+
+    // Applica un aggiornamento alla copia locale del rank di una città. Va invocato tenendo la lock su localRankMap
+    private void applyLocalRankPush(CachedLocalRank localRank, localRankPushMessage pushPk) {
+        if (localRank.syncing) {
+            // Il ranking completo in arrivo può essere di una versione precedente all'aggiornamento (il server lo
+            // costruisce prima di inviarlo): l'aggiornamento viene conservato e riapplicato dopo il ranking completo
+            localRank.pendingPushes.add(pushPk);
+            return;
+        }
+        if (localRank.hotels != null && pushPk.getVersion() <= localRank.version) {
+            return; // Versione già presente nella copia locale
+        }
+        if (localRank.hotels == null || pushPk.getVersion() != localRank.version + 1 || !applyMoves(localRank, pushPk.getMoves())) {
+            requestLocalRankSync(localRank);
+            return;
+        }
+        localRank.version = pushPk.getVersion();
+    }
+
+    // Riordina gli hotel della copia locale in base agli spostamenti; restituisce false (senza modificare la copia)
+    // se gli spostamenti non sono coerenti con la copia o riguardano hotel che la copia non contiene
+    private static boolean applyMoves(CachedLocalRank localRank, List<LocalRankMove> moves) {
+        List<Hotel> hotels = localRank.hotels;
+        Hotel[] reordered = new Hotel[hotels.size()];
+        Set<Integer> movedIds = new HashSet<>();
+        for (LocalRankMove move : moves) {
+            int oldPosition = move.getOldPosition();
+            int newPosition = move.getNewPosition();
+            if (oldPosition < 1 || oldPosition > hotels.size() || newPosition < 1 || newPosition > hotels.size()
+                    || hotels.get(oldPosition - 1).getId() != move.getHotelId() || reordered[newPosition - 1] != null) {
+                return false;
+            }
+            reordered[newPosition - 1] = hotels.get(oldPosition - 1);
+            movedIds.add(move.getHotelId());
+        }
+        // Gli hotel non spostati restano nella loro posizione
+        for (int i = 0; i < reordered.length; i++) {
+            if (reordered[i] == null) {
+                if (movedIds.contains(hotels.get(i).getId())) {
+                    return false;
+                }
+                reordered[i] = hotels.get(i);
+            }
+        }
+        for (LocalRankMove move : moves) {
+            reordered[move.getNewPosition() - 1].setLocalRanking(move.getNewPosition());
+        }
+        localRank.hotels = List.of(reordered);
+        return true;
+    }
+
+    // Richiede al server il ranking completo di una città. La richiesta viene inviata da un altro thread, perché il
+    // thread di ricezione non può attendere l'invio né la risposta, che è lui stesso a ricevere
+    private void requestLocalRankSync(CachedLocalRank localRank) {
+        localRank.syncing = true;
+        CompletableFuture.supplyAsync(() -> sendRequest(new localRankSyncMessageRequest(localRank.city)))
+                .thenCompose(response -> response)
+                .whenComplete((packet, error) -> {
+                    synchronized (localRankMap) {
+                        localRank.syncing = false;
+                        if (packet instanceof localRankSyncResponseMessage syncPk && syncPk.getLocalRank() != null) {
+                            localRank.hotels = syncPk.getLocalRank().getHotels();
+                            localRank.version = syncPk.getVersion();
+                        }
+                        // Riapplica in ordine di versione gli aggiornamenti ricevuti nel frattempo: quelli già inclusi
+                        // nel ranking completo vengono ignorati, quelli successivi lo portano alla versione corrente
+                        List<localRankPushMessage> receivedPushes = new ArrayList<>(localRank.pendingPushes);
+                        localRank.pendingPushes.clear();
+                        receivedPushes.sort(Comparator.comparingLong(localRankPushMessage::getVersion));
+                        for (localRankPushMessage pushPk : receivedPushes) {
+                            applyLocalRankPush(localRank, pushPk);
+                        }
+                    }
+                });
+    }
+
+    // Converte la mappa dei rank locali ricevuti in una stringa formattata, pronta per la stampa
+    public String localRankMapToString() {
+        StringBuilder sb = new StringBuilder();
+        String separator = "--------------------------------------------------\n";
+        synchronized (localRankMap) {
+            for (CachedLocalRank localRank : localRankMap.values()) {
+                if (localRank.hotels == null) {
+                    continue; // Ranking completo non ancora ricevuto
+                }
+                sb.append("================" + localRank.city + "================").append("\n\n");
+                // Aggiunge informazioni sugli hotel di ciascuna città
+                for (Hotel hotel : localRank.hotels) {
+                    sb.append(hotel).append("\n");
+                    sb.append(separator);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    // Verifica se non è stato ricevuto alcun rank locale
+    public boolean isLocalRankMapEmpty() {
+        synchronized (localRankMap) {
+            return localRankMap.values().stream().allMatch(localRank -> localRank.hotels == null);
+        }
+    }
+
+    // Svuota la mappa dei rank locali ricevuti
+    public void resetLocalRankMap() {
+        synchronized (localRankMap) {
+            localRankMap.clear();
         }
-        return null;
     }
 
     // Crea il pacchetto di richiesta appropriato in base al nome del comando
@@ -77,14 +372,22 @@ public class TCPCommandHandlerClient {
     private void sendPacket(Request_ResponseMessage net_packet) throws IOException{
         // Ottiene l'ID del pacchetto dal metodo di serializzazione
         int net_packetID = messageSerialization.getIDFromPacket(net_packet);
-        // Serializza il pacchetto in una stringa JSON
-        String serializedPK = objectMapper.writeValueAsString(net_packet);
-        // Converte la stringa in un array di byte
-        byte[] packet_bytes = serializedPK.getBytes(StandardCharsets.UTF_8);
+        byte[] packet_bytes;
+        if (binaryCodec) {
+            // Codifica il pacchetto in formato binario
+            ByteArrayOutputStream binaryPK = new ByteArrayOutputStream();
+            messageBinaryCodec.encode(net_packet, new DataOutputStream(binaryPK));
+            packet_bytes = binaryPK.toByteArray();
+        } else {
+            // Serializza il pacchetto in una stringa JSON
+            String serializedPK = objectMapper.writeValueAsString(net_packet);
+            // Converte la stringa in un array di byte
+            packet_bytes = serializedPK.getBytes(StandardCharsets.UTF_8);
+        }
         // Crea un buffer per il pacchetto, che include la lunghezza e l'ID
         ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + packet_bytes.length);
         buffer.putInt(packet_bytes.length); // Aggiunge la lunghezza del pacchetto
-        buffer.putInt(net_packetID); // Aggiunge l'ID del pacchetto
+        buffer.putInt(messageSerialization.composeHeaderID(net_packetID, net_packet.getCorrelationID(), binaryCodec)); // Aggiunge ID del pacchetto, codifica e correlazione
         buffer.put(packet_bytes); // Aggiunge i dati del pacchetto
         // Scrive i dati nel flusso di output
         outputStream.write(buffer.array());
@@ -98,15 +401,24 @@ public class TCPCommandHandlerClient {
         ByteBuffer responseHeader = ByteBuffer.wrap(responseByte);
         // Estrae la lunghezza del payload e l'ID del pacchetto dall'intestazione
         int payloadSize = responseHeader.getInt();
-        int packet_id = responseHeader.getInt();
+        int headerID = responseHeader.getInt();
 
         byte[] responsePayloadBytes = new byte[payloadSize]; // Array per i dati del payload
         readAllBytes(responsePayloadBytes); // Legge tutti i byte del payload
-        String jsonPayload = new String(responsePayloadBytes); // Converte i byte in una stringa JSON
 
         try {
-            // Deserializza il JSON nel pacchetto di risposta
-            return JsonUtils.deserializeRequestResponseMessage(jsonPayload);
+            Request_ResponseMessage responsePk;
+            if (messageSerialization.isBinaryEncoded(headerID)) {
+                // Decodifica il payload binario in base all'ID del pacchetto
+                int packetID = messageSerialization.getPacketIDFromHeader(headerID);
+                responsePk = messageBinaryCodec.decode(packetID, new DataInputStream(new ByteArrayInputStream(responsePayloadBytes)));
+            } else {
+                // Deserializza il JSON nel pacchetto di risposta
+                String jsonPayload = new String(responsePayloadBytes, StandardCharsets.UTF_8); // Converte i byte in una stringa JSON
+                responsePk = JsonUtils.deserializeRequestResponseMessage(jsonPayload);
+            }
+            responsePk.setCorrelationID(messageSerialization.getCorrelationIDFromHeader(headerID));
+            return responsePk;
         } catch (IOException e) {
             System.err.println("Error deserializing request: " + e.getMessage());
             throw e;
@@ -117,7 +429,8 @@ public class TCPCommandHandlerClient {
     private Request_ResponseMessage createPacketLogin(String[] c_args) {
         String username = c_args[0]; // Estrae il nome utente dagli argomenti
         String password = c_args[1]; // Estrae la password dagli argomenti
-        loginMessageRequest loginPkt = new loginMessageRequest(username, password); // Crea il pacchetto di login
+        String sessionToken = sessionTokens.get(username.toLowerCase()); // Token di un login precedente, se presente
+        loginMessageRequest loginPkt = new loginMessageRequest(username, password, sessionToken); // Crea il pacchetto di login
         return loginPkt;
     }
 
@@ -173,7 +486,7 @@ public class TCPCommandHandlerClient {
     }
 
     // Elabora la risposta e la restituisce come stringa
-    private String getRespone(Request_ResponseMessage net_packet) throws IOException {
+    private String getRespone(Request_ResponseMessage net_packet) {
         return switch (net_packet){
             case loginResponseMessage login_packet -> login_packet.getLoginResponse(); // Risposta di login
             case logoutResponseMessage logout_packet -> logout_packet.getLogoutResponse(); // Risposta di logout
@@ -181,6 +494,8 @@ public class TCPCommandHandlerClient {
             case searchAllHotelsResponseMessage allHotels_packet -> formatHotelList(allHotels_packet.getHotels()); // Risposta di ricerca per tutti gli hotel
             case insertReviewResponseMessage insertReview_packet -> insertReview_packet.getResponseMessage(); // Risposta di inserimento recensione
             case badgeLevelMessageResponse badge_packet -> badge_packet.getBadge().toString(); // Risposta del badge
+            case subscribeRankResponseMessage subscribe_packet -> subscribe_packet.getSubscribeResponse(); // Risposta di iscrizione al rank locale
+            case unsubscribeRankResponseMessage unsubscribe_packet -> unsubscribe_packet.getUnsubscribeResponse(); // Risposta di annullamento dell'iscrizione
             case errorResponseMessage error_packet -> error_packet.getErrorMessageResponse(); // Risposta di errore
             default -> null;
         };
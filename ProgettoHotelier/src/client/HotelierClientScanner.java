@@ -13,7 +13,7 @@ import java.util.Arrays;
  * Si occupa di:
  * 1. Leggere e analizzare i comandi inseriti dall'utente.
  * 2. Eseguire i comandi e stampare la risposta.
- * 3. Gestire la registrazione e deregistrazione per le callback RMI per le città di interesse.
+ * 3. Gestire l'iscrizione agli aggiornamenti del rank locale delle città di interesse, ricevuti sulla connessione TCP.
  * 4. Gestire la connessione al gruppo multicast per ricevere notifiche sulle modifiche al rank locale delle città di interesse.
  *
  * La classe esegue queste operazioni all'interno di un thread separato per mantenere l'applicazione reattiva.
@@ -79,9 +79,9 @@ public class HotelierClientScanner implements Runnable {
 
                             // Verifico se l'utente ha inserito almeno una città di interesse
                             if (cities != null && cities.length != 0) {
-                                // Registro il client per le callback RMI sui cambiamenti del rank locale
-                                clientRMI.registerInterests(Arrays.asList(cities));
-                                System.out.println("\nCittà di interesse registrate con successo !");
+                                // Iscrivo il client agli aggiornamenti del rank locale, inviati dal server sulla connessione TCP
+                                String subscribeResponse = cmd_Handler.getHotelierClientTcpHandler().subscribeRank(Arrays.asList(cities));
+                                System.out.println("\n" + subscribeResponse);
                             } else {
                                 // Se non sono state inserite città, avviso l'utente
                                 System.out.println("\n<Attenzione> Nessuna città di interesse è stata registrata.");
@@ -93,12 +93,8 @@ public class HotelierClientScanner implements Runnable {
 
                         // Controllo se è stato effettuato il logout con successo
                         if (StringUtils.equals(response, "Logout effettuato correttamente, Arrivederci!")) {
-                            // Se il logout ha successo, eseguo la deregistrazione per le callback RMI
-                            if (!clientRMI.islocalRankMapEmpty()) {
-                                // Deregistro il client per le callback RMI
-                                clientRMI.removeInterest();
-                                clientRMI.resetLocalRankMap();
-                            }
+                            // Con il logout il server annulla l'iscrizione agli aggiornamenti: svuoto i rank locali ricevuti
+                            cmd_Handler.getHotelierClientTcpHandler().resetLocalRankMap();
 
                             // Rimuovo il client dal gruppo multicast per non ricevere più notifiche
                             multicastReceiver.leaveGroup();
@@ -13,7 +13,7 @@ public class ClientConfigManager {
     public static void createDeafaultSettings(){
         try{
 
-            clientConfig = new HotelierClientConfig(9999, 1099, 49152, "localhost", "Hotelier-Service-Program", "230.0.0.0");
+            clientConfig = new HotelierClientConfig(9999, 1099, 49152, "localhost", "Hotelier-Service-Program", "230.0.0.0", true);
             var jsonConfig = JsonUtils.serialize(clientConfig);
             JsonUtils.writeFile(jsonConfig, new File(CLIENT_CONFIG_PATH_JSON));
         }catch (IOException e){
@@ -13,6 +13,7 @@ public class HotelierClientConfig {
      * • serverAddress, indirizzo HotelierServer utilizzato dalle socket
      * • rmiRemoteReference, nome per reperire stub server dal registro rmi
      * • mcastAddress, indirizzo ip socket multicast
+     * • binaryCodec, se true il client usa la codifica binaria dei pacchetti invece del JSON
      */
 
     private final int tcpPort;
@@ -21,6 +22,7 @@ public class HotelierClientConfig {
     private final String serverAddress;
     private final String rmiRemoteReference;
     private final String mcastAddress;
+    private final boolean binaryCodec;
 
     @JsonCreator
     public HotelierClientConfig(
@@ -29,7 +31,8 @@ public class HotelierClientConfig {
             @JsonProperty("mcastPort") int mcastPort,
             @JsonProperty("serverAddress") String serverAddress,
             @JsonProperty("rmiRemoteReference") String rmiRemoteReference,
-            @JsonProperty("mcastAddress") String mcastAddress
+            @JsonProperty("mcastAddress") String mcastAddress,
+            @JsonProperty("binaryCodec") boolean binaryCodec
     ) {
         this.tcpPort = tcpPort;
         this.rmiPort = rmiPort;
@@ -37,6 +40,7 @@ public class HotelierClientConfig {
         this.serverAddress = serverAddress;
         this.rmiRemoteReference = rmiRemoteReference;
         this.mcastAddress = mcastAddress;
+        this.binaryCodec = binaryCodec;
     }
 
     public int getTcpPort() {
@@ -62,4 +66,8 @@ public class HotelierClientConfig {
     public String getMcastAddress() {
         return mcastAddress;
     }
+
+    public boolean isBinaryCodec() {
+        return binaryCodec;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package model;
+
+/**
+ * La classe LocalRankMove rappresenta lo spostamento di un hotel nel rank locale di una città tra due versioni
+ * successive del ranking. Le notifiche di aggiornamento del rank locale contengono solo gli hotel che hanno
+ * cambiato posizione: il client le applica alla propria copia del ranking.
+ * Le posizioni sono 1-based; una posizione precedente pari a 0 indica un hotel non presente nella versione precedente.
+ */
+public class LocalRankMove {
+
+    private int hotelId;  // Identificatore dell'hotel spostato
+    private int oldPosition;  // Posizione nella versione precedente del ranking (0 se assente)
+    private int newPosition;  // Posizione nella nuova versione del ranking
+
+    // Costruttore senza parametri
+    public LocalRankMove() {}
+
+    /**
+     * Costruttore che inizializza lo spostamento di un hotel.
+     *
+     * @param hotelId L'identificatore dell'hotel
+     * @param oldPosition La posizione nella versione precedente del ranking (0 se assente)
+     * @param newPosition La posizione nella nuova versione del ranking
+     */
+    public LocalRankMove(int hotelId, int oldPosition, int newPosition) {
+        this.hotelId = hotelId;
+        this.oldPosition = oldPosition;
+        this.newPosition = newPosition;
+    }
+
+    public int getHotelId() {
+        return hotelId;
+    }
+
+    public int getOldPosition() {
+        return oldPosition;
+    }
+
+    public int getNewPosition() {
+        return newPosition;
+    }
+}
@@ -12,7 +12,7 @@ public class Utente {
     private String username;  // Il nome utente dell'utente
 
     @JsonProperty("password")
-    private String password;  // La password dell'utente
+    private String password;  // L'hash della password dell'utente (vedi HotelierServerPasswordHasher)
 
     @JsonProperty("reviewCount")
     private int reviewCount;  // Il numero di recensioni scritte dall'utente
@@ -42,8 +42,13 @@ public class Utente {
         return username;  // Restituisce il nome utente
     }
 
-    public String getPassword() {
-        return password;  // Restituisce la password dell'utente
+    public synchronized String getPassword() {
+        return password;  // Restituisce l'hash della password dell'utente
+    }
+
+    // Imposta l'hash della password dell'utente (ricalcolo dell'hash con un nuovo fattore di lavoro)
+    public synchronized void setPassword(String password) {
+        this.password = password;
     }
 
     // Restituisce il badge level dell'utente (distintivo)
@@ -0,0 +1,133 @@
+package server.Handlers;
+
+import server.config.ConfigManager;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe HotelierServerBufferPool gestisce un pool di ByteBuffer diretti condiviso tra tutte le connessioni
+ * del server, in modo da riutilizzare i buffer di lettura e scrittura dei pacchetti invece di allocarne di nuovi
+ * per ogni richiesta.
+ * I buffer sono organizzati in classi di dimensione (potenze di due tra MIN_CLASS_SIZE e MAX_CLASS_SIZE): ogni
+ * richiesta viene servita con un buffer della classe più piccola che la contiene.
+ * La memoria complessiva trattenuta dal pool è limitata da bufferPoolMaxBytes (config del server): i buffer
+ * rilasciati oltre il limite vengono lasciati al garbage collector.
+ */
+public class HotelierServerBufferPool {
+
+    // Dimensione della classe di buffer più piccola (in byte)
+    private static final int MIN_CLASS_SIZE = 256;
+    // Dimensione della classe di buffer più grande (in byte); richieste più grandi non vengono gestite dal pool
+    private static final int MAX_CLASS_SIZE = 1024 * 1024;
+    // Limite di memoria trattenuta dal pool se non specificato nella config
+    private static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+    // Istanza unica della classe (Singleton)
+    private static HotelierServerBufferPool instance = null;
+
+    /**
+     * Metodo per ottenere l'istanza unica di HotelierServerBufferPool (Singleton).
+     *
+     * @return L'istanza unica di HotelierServerBufferPool.
+     */
+    public static synchronized HotelierServerBufferPool getInstance() {
+        if (instance == null) {
+            var serverConfig = ConfigManager.getServerConfig();
+            long maxPooledBytes = serverConfig != null && serverConfig.getBufferPoolMaxBytes() > 0
+                    ? serverConfig.getBufferPoolMaxBytes()
+                    : DEFAULT_MAX_POOLED_BYTES;
+            instance = new HotelierServerBufferPool(maxPooledBytes);
+        }
+        return instance;
+    }
+
+    // Liste dei buffer liberi, una per ogni classe di dimensione
+    private final Queue<ByteBuffer>[] freeBuffers;
+    // Byte attualmente trattenuti nelle liste dei buffer liberi
+    private final AtomicLong pooledBytes;
+    // Limite massimo di byte trattenuti dal pool
+    private final long maxPooledBytes;
+
+    /**
+     * Costruttore privato della classe, inizializza una lista di buffer liberi per ogni classe di dimensione.
+     *
+     * @param maxPooledBytes Il numero massimo di byte che il pool può trattenere.
+     */
+    @SuppressWarnings("unchecked")
+    private HotelierServerBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        int classes = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE) + 1;
+        freeBuffers = (Queue<ByteBuffer>[]) new Queue<?>[classes];
+        for (int i = 0; i < classes; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue<>();
+        }
+        pooledBytes = new AtomicLong(0);
+    }
+
+    /**
+     * Restituisce un buffer con capacità almeno pari a size, pronto per la scrittura (position 0, limit = size).
+     * Se la dimensione richiesta supera la classe più grande viene allocato un buffer heap non gestito dal pool.
+     *
+     * @param size Il numero di byte richiesti.
+     * @return Il buffer da utilizzare.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size > MAX_CLASS_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+
+        int sizeClass = sizeClassOf(size);
+        ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+        } else {
+            buffer = ByteBuffer.allocateDirect(MIN_CLASS_SIZE << sizeClass);
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Restituisce un buffer al pool. I buffer non provenienti dal pool, o quelli che farebbero superare
+     * il limite di memoria trattenuta, vengono scartati.
+     *
+     * @param buffer Il buffer da rilasciare (può essere null).
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        // Solo i buffer con capacità pari a una classe di dimensione appartengono al pool
+        if (capacity < MIN_CLASS_SIZE || capacity > MAX_CLASS_SIZE || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+
+        // Riserva lo spazio nel pool solo se non viene superato il limite
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        freeBuffers[sizeClassOf(capacity)].offer(buffer);
+    }
+
+    /**
+     * Calcola l'indice della classe di dimensione più piccola in grado di contenere size byte.
+     *
+     * @param size Il numero di byte richiesti.
+     * @return L'indice della classe di dimensione.
+     */
+    private int sizeClassOf(int size) {
+        if (size <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+        int classSize = Integer.highestOneBit(size - 1) << 1; // Potenza di due successiva
+        return Integer.numberOfTrailingZeros(classSize) - Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    }
+}
@@ -1,13 +1,22 @@
 package server.Handlers;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.Executor;
 
 import Response_Request_netPackets.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import server.config.ConfigManager;
+import utils.ByteBufferInputStream;
 
 /**
  * La classe `HotelierServerConnectionClientHandler` gestisce la connessione tra il server e un client
@@ -16,38 +25,112 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public class HotelierServerConnectionClientHandler {
 
+    // Budget di byte per passata di scrittura se non specificato nella config
+    private static final int DEFAULT_WRITE_BUDGET = 64 * 1024;
+
+    // Numero massimo di pacchetti in coda oltre il quale gli aggiornamenti non richiesti vengono scartati
+    private static final int MAX_QUEUED_PUSHES = 256;
+
     // Canale di comunicazione associato al client per la lettura e la scrittura dei dati
     private final SocketChannel client;
 
-    // Gestore dei pacchetti di messaggi
-    private final HotelierServerMessageManager hotelierMessageManager;
+    // Chiave di registrazione del client sul selector, usata per abilitare/disabilitare l'interesse in scrittura
+    private final SelectionKey selectionKey;
+
+    // Gestore dei pacchetti di messaggi (collegato da create() dopo la costruzione dell'handler)
+    private HotelierServerMessageManager hotelierMessageManager;
 
     // Coda di pacchetti di risposta da inviare al client
     private final Queue<Request_ResponseMessage> responseQueue;
 
-    // Buffer per leggere l'intestazione della richiesta (header) e il payload
-    private ByteBuffer requestHeader, requestPayload;
+    // Richieste ricevute in attesa di elaborazione, nell'ordine di arrivo
+    private final Queue<Request_ResponseMessage> pendingRequests;
+
+    // true se un task di elaborazione delle richieste è in coda o in esecuzione sul pool (protetto dalla lock
+    // su pendingRequests)
+    private boolean processingRequests;
+
+    // true se la connessione è stata chiusa mentre un task di elaborazione era attivo: la disconnessione verrà
+    // notificata al gestore dei messaggi dal task stesso, dopo le richieste in coda (protetto dalla lock su
+    // pendingRequests)
+    private boolean disconnectPending;
+
+    // Buffer per leggere l'intestazione della richiesta (header), allocato una sola volta e riutilizzato
+    private final ByteBuffer requestHeader;
+
+    // Buffer per leggere il payload della richiesta, ottenuto dal pool e rilasciato dopo la deserializzazione
+    private ByteBuffer requestPayload;
 
-    // Buffer per la scrittura delle risposte
-    private ByteBuffer responseBuffer;
+    // Risposte serializzate in attesa di essere scritte sul canale, nell'ordine di invio
+    private final ArrayDeque<ByteBuffer> pendingWrites;
+
+    // Array riutilizzato per passare i buffer in attesa alla gathering write
+    private ByteBuffer[] writeBatch;
+
+    // Numero massimo di byte da preparare per ogni passata di scrittura
+    private final int writeBudget;
 
     // Stato della connessione con il client (true = connesso, false = disconnesso)
     private boolean isConnected;
 
+    // Codifica delle risposte negoziata con il client: JSON finché il client non invia un frame binario
+    private boolean binaryEncoding;
+
     // Jackson ObjectMapper per la serializzazione e deserializzazione in formato JSON
     private final ObjectMapper objectMapper;
 
+    // Pool di buffer diretti condiviso tra tutte le connessioni
+    private final HotelierServerBufferPool bufferPool;
+
+    // Istante dell'ultima lettura o scrittura di byte sul canale (millisecondi, usato solo dal thread del reactor)
+    private long lastActivityMs;
+
+    // Istante in cui è stato ricevuto il primo byte del pacchetto in lettura (0 se nessun pacchetto è in corso)
+    private long frameStartMs;
+
+    // true se il reactor ha già avviato il controllo del timeout di lettura del pacchetto in corso
+    private boolean readTimeoutArmed;
+
     /**
-     * Costruttore della classe. Inizializza il canale del client, il gestore dei messaggi,
-     * la coda delle risposte, e l'ObjectMapper per la serializzazione/deserializzazione.
+     * Crea l'handler di una connessione e gli collega il gestore dei messaggi.
+     * Il gestore riceve il riferimento all'handler solo dopo che questo è stato costruito
+     * completamente, così nessun oggetto vede un handler inizializzato a metà.
      *
      * @param client Il canale SocketChannel associato al client
+     * @param selectionKey La chiave con cui il canale è registrato sul selector
+     * @return L'handler pronto per essere associato alla chiave di selezione
      */
-    public HotelierServerConnectionClientHandler(SocketChannel client) {
+    public static HotelierServerConnectionClientHandler create(SocketChannel client, SelectionKey selectionKey) {
+        HotelierServerConnectionClientHandler handler = new HotelierServerConnectionClientHandler(client, selectionKey);
+        handler.hotelierMessageManager = new HotelierServerMessageManager(handler); // Gestore dei messaggi
+        return handler;
+    }
+
+    /**
+     * Costruttore della classe. Inizializza il canale del client, la coda delle risposte,
+     * e l'ObjectMapper per la serializzazione/deserializzazione.
+     * Il gestore dei messaggi viene collegato da {@link #create(SocketChannel, SelectionKey)}.
+     *
+     * @param client Il canale SocketChannel associato al client
+     * @param selectionKey La chiave con cui il canale è registrato sul selector
+     */
+    private HotelierServerConnectionClientHandler(SocketChannel client, SelectionKey selectionKey) {
         this.client = client;
-        hotelierMessageManager = new HotelierServerMessageManager(); // Gestore dei messaggi
+        this.selectionKey = selectionKey;
         responseQueue = new LinkedList<>(); // Coda per le risposte
+        pendingRequests = new ArrayDeque<>(); // Coda delle richieste da elaborare
         isConnected = true; // Il client è connesso all'inizio
+        requestHeader = ByteBuffer.allocateDirect(8).order(ByteOrder.BIG_ENDIAN); // Buffer dell'intestazione
+        bufferPool = HotelierServerBufferPool.getInstance(); // Pool dei buffer di payload e risposta
+        pendingWrites = new ArrayDeque<>(); // Risposte serializzate in attesa di invio
+        writeBatch = new ByteBuffer[16]; // Array per la gathering write
+        lastActivityMs = System.currentTimeMillis(); // La connessione appena accettata è attiva
+
+        // Budget di byte per passata di scrittura letto dalla config del server
+        var serverConfig = ConfigManager.getServerConfig();
+        writeBudget = serverConfig != null && serverConfig.getWriteBudgetBytes() > 0
+                ? serverConfig.getWriteBudgetBytes()
+                : DEFAULT_WRITE_BUDGET;
 
         // Inizializzazione dell'ObjectMapper per JSON
         objectMapper = new ObjectMapper();
@@ -63,39 +146,61 @@ public class HotelierServerConnectionClientHandler {
     public Request_ResponseMessage handleRead() {
         if (isConnected) {
             try {
-                // Se non è stato ancora allocato, inizializza il buffer dell'intestazione (header)
-                if (requestHeader == null) {
-                    requestHeader = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-                }
-
                 // Legge l'intestazione se ci sono ancora dati da leggere
                 if (requestHeader.hasRemaining()) {
-                    if (client.read(requestHeader) == -1) {
+                    int bytesRead = client.read(requestHeader);
+                    if (bytesRead == -1) {
                         throw new IOException();
                     }
+                    // Il primo byte dell'intestazione avvia il timeout di lettura del pacchetto
+                    if (bytesRead > 0) {
+                        lastActivityMs = System.currentTimeMillis();
+                        if (frameStartMs == 0) {
+                            frameStartMs = lastActivityMs;
+                        }
+                    }
                 }
 
-                // Una volta letta l'intestazione, inizializza il buffer del payload
+                // Una volta letta l'intestazione, ottiene dal pool il buffer del payload
                 if (!requestHeader.hasRemaining() && requestPayload == null) {
                     requestHeader.flip();
                     int payloadSize = requestHeader.getInt(); // Ottieni la dimensione del payload
-                    requestPayload = ByteBuffer.allocate(payloadSize).order(ByteOrder.BIG_ENDIAN); // Alloca il buffer per il payload
+                    if (payloadSize < 0) {
+                        throw new IOException("<Errore di lettura>: dimensione del payload non valida");
+                    }
+                    requestPayload = bufferPool.acquire(payloadSize); // Buffer del pool con limit = payloadSize
                 }
 
                 // Legge il payload se ci sono ancora dati da leggere
                 if (requestPayload != null && requestPayload.hasRemaining()) {
-                    if (client.read(requestPayload) == -1) {
+                    int bytesRead = client.read(requestPayload);
+                    if (bytesRead == -1) {
                         throw new IOException("<Errore di lettura>: client disconnesso durante la lettura del payload");
                     }
+                    if (bytesRead > 0) {
+                        lastActivityMs = System.currentTimeMillis();
+                    }
                 }
 
                 // Una volta letto tutto il payload, deserializza il pacchetto
                 if (requestPayload != null && !requestPayload.hasRemaining()) {
-                    int packetID = requestHeader.getInt(); // Ottieni l'ID del pacchetto
+                    int headerID = requestHeader.getInt(); // Ottieni ID del pacchetto e identificativo di correlazione
+                    int packetID = messageSerialization.getPacketIDFromHeader(headerID);
+                    // Un client che invia frame binari riceverà anche le risposte in formato binario
+                    boolean binaryRequest = messageSerialization.isBinaryEncoded(headerID);
+                    if (binaryRequest) {
+                        binaryEncoding = true;
+                    }
                     requestPayload.flip();
-                    Request_ResponseMessage packet = deserializeRequest(packetID, requestPayload); // Deserializza il pacchetto
-                    requestHeader = null; // Resetta il buffer dell'intestazione
-                    requestPayload = null; // Resetta il buffer del payload
+                    Request_ResponseMessage packet = deserializeRequest(packetID, binaryRequest, requestPayload); // Deserializza il pacchetto
+                    if (packet != null) {
+                        packet.setCorrelationID(messageSerialization.getCorrelationIDFromHeader(headerID));
+                    }
+                    requestHeader.clear(); // Prepara il buffer dell'intestazione per il pacchetto successivo
+                    frameStartMs = 0; // Pacchetto ricevuto completamente
+                    readTimeoutArmed = false;
+                    bufferPool.release(requestPayload); // Restituisce il buffer del payload al pool
+                    requestPayload = null;
                     return packet; // Restituisce il pacchetto deserializzato
                 }
             } catch (IOException exception) {
@@ -105,49 +210,188 @@ public class HotelierServerConnectionClientHandler {
         return null; // Restituisce null se non è stato possibile leggere i dati
     }
 
+    /**
+     * Accoda un pacchetto di richiesta ricevuto dal client e, se non è già attivo, avvia sul pool il task che
+     * elabora le richieste della connessione.
+     * Le richieste di una stessa connessione vengono così elaborate una alla volta e nell'ordine di arrivo, anche se
+     * il client ne invia più di una senza attendere le risposte (lo stato di login della connessione dipende
+     * dall'ordine), mentre le richieste di connessioni diverse vengono elaborate in parallelo.
+     *
+     * @param packet Il pacchetto di richiesta ricevuto.
+     * @param executor Il pool su cui elaborare le richieste.
+     */
+    public void submitPacket(Request_ResponseMessage packet, Executor executor) {
+        synchronized (pendingRequests) {
+            pendingRequests.add(packet);
+            if (processingRequests) {
+                return;
+            }
+            processingRequests = true;
+        }
+        executor.execute(this::processPendingPackets);
+    }
+
+    /**
+     * Task di elaborazione: gestisce in ordine le richieste in attesa della connessione finché la coda non è vuota.
+     * Se nel frattempo la connessione è stata chiusa, notifica la disconnessione al gestore dei messaggi dopo
+     * l'ultima richiesta.
+     */
+    private void processPendingPackets() {
+        while (true) {
+            Request_ResponseMessage packet;
+            boolean disconnect = false;
+            synchronized (pendingRequests) {
+                packet = pendingRequests.poll();
+                if (packet == null) {
+                    disconnect = disconnectPending;
+                    disconnectPending = false;
+                    processingRequests = false;
+                }
+            }
+            if (packet == null) {
+                if (disconnect) {
+                    notifyDisconnect();
+                }
+                return;
+            }
+            try {
+                handlePacket(packet);
+            } catch (RuntimeException e) {
+                // Un errore nella gestione di una richiesta non deve bloccare le richieste successive
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Gestisce il pacchetto di richiesta ricevuto dal client, passando il pacchetto al gestore dei messaggi
      * per la gestione della logica del pacchetto. Se viene prodotto un pacchetto di risposta, viene aggiunto
-     * alla coda delle risposte.
+     * alla coda delle risposte e viene abilitato l'interesse in scrittura sul selector.
      *
      * @param packet Il pacchetto di richiesta da gestire.
      */
-    public void handlePacket(Request_ResponseMessage packet) {
+    private void handlePacket(Request_ResponseMessage packet) {
         Request_ResponseMessage responsePacket = hotelierMessageManager.handlePacket(packet); // Gestisce il pacchetto
         if (responsePacket != null) {
+            // La risposta riporta l'identificativo di correlazione della richiesta
+            responsePacket.setCorrelationID(packet.getCorrelationID());
             synchronized (responseQueue) {
                 responseQueue.add(responsePacket); // Aggiungi la risposta alla coda
+                enableWriteInterest();
+            }
+        }
+    }
+
+    /**
+     * Accoda un pacchetto non richiesto dal client (aggiornamento del rank locale di una città a cui è iscritto),
+     * che viene inviato intercalato alle risposte con identificativo di correlazione 0.
+     * Se il client non smaltisce i pacchetti già in coda l'aggiornamento viene scartato: il client può sempre
+     * rileggere la lista degli hotel della città con una richiesta.
+     *
+     * @param packet Il pacchetto da inviare.
+     * @return true se il pacchetto è stato accodato, false se è stato scartato.
+     */
+    public boolean pushPacket(Request_ResponseMessage packet) {
+        if (!isConnected) {
+            return false;
+        }
+        synchronized (responseQueue) {
+            if (responseQueue.size() >= MAX_QUEUED_PUSHES) {
+                return false;
             }
+            responseQueue.add(packet);
+            enableWriteInterest();
+        }
+        return true;
+    }
+
+    /**
+     * Restituisce l'indirizzo del client della connessione.
+     *
+     * @return L'indirizzo remoto del canale.
+     */
+    public SocketAddress getClientAddress() {
+        return client.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * Abilita l'interesse in scrittura sulla chiave del client e risveglia il selector, in modo che
+     * il reactor si accorga subito della nuova risposta da inviare.
+     * Va invocato tenendo la lock sulla coda delle risposte.
+     */
+    private void enableWriteInterest() {
+        if (selectionKey.isValid()) {
+            selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+            selectionKey.selector().wakeup();
+        }
+    }
+
+    /**
+     * Disabilita l'interesse in scrittura sulla chiave del client una volta svuotata la coda delle risposte.
+     * Va invocato tenendo la lock sulla coda delle risposte.
+     */
+    private void disableWriteInterest() {
+        if (selectionKey.isValid()) {
+            selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
         }
     }
 
     /**
      * Gestisce la scrittura dei pacchetti di risposta verso il client.
-     * Se la coda delle risposte contiene dei pacchetti, li serializza e li scrive sul canale.
-     * Dopo aver scritto un pacchetto, rimuove il pacchetto dalla coda se è stato completamente inviato.
+     * Serializza le risposte accodate finché i byte in attesa di invio non raggiungono il budget per passata,
+     * poi le scrive sul canale con un'unica gathering write. I buffer scritti completamente vengono
+     * restituiti al pool; quando non resta nulla da inviare l'interesse in scrittura viene disabilitato.
      */
     public void handleWrite() {
         if (isConnected) {
             try {
-                // Se non è stato ancora inizializzato, prepara il buffer di risposta
-                if (responseBuffer == null) {
+                // Serializza le risposte accodate fino al raggiungimento del budget di byte per passata
+                long pendingBytes = 0;
+                for (ByteBuffer pendingWrite : pendingWrites) {
+                    pendingBytes += pendingWrite.remaining();
+                }
+                while (pendingBytes < writeBudget) {
+                    Request_ResponseMessage responsePacket;
                     synchronized (responseQueue) {
-                        Request_ResponseMessage responsePacket = responseQueue.peek(); // Prendi il primo pacchetto nella coda
-                        if (responsePacket != null) {
-                            responseBuffer = serializeResponse(responsePacket); // Serializza il pacchetto
-                        }
+                        responsePacket = responseQueue.poll(); // Prendi il primo pacchetto nella coda
+                    }
+                    if (responsePacket == null) {
+                        break;
+                    }
+                    // I pacchetti non serializzabili vengono scartati per non bloccare la coda
+                    ByteBuffer serializedResponse = serializeResponse(responsePacket);
+                    if (serializedResponse != null) {
+                        pendingWrites.add(serializedResponse);
+                        pendingBytes += serializedResponse.remaining();
+                    }
+                }
+
+                // Scrive tutti i buffer in attesa con una sola chiamata di sistema
+                if (!pendingWrites.isEmpty()) {
+                    if (writeBatch.length < pendingWrites.size()) {
+                        writeBatch = new ByteBuffer[Math.max(pendingWrites.size(), writeBatch.length * 2)];
+                    }
+                    int batchSize = 0;
+                    for (ByteBuffer pendingWrite : pendingWrites) {
+                        writeBatch[batchSize++] = pendingWrite;
+                    }
+                    if (client.write(writeBatch, 0, batchSize) > 0) {
+                        lastActivityMs = System.currentTimeMillis();
+                    }
+                    Arrays.fill(writeBatch, 0, batchSize, null);
+
+                    // Restituisce al pool i buffer scritti completamente
+                    while (!pendingWrites.isEmpty() && !pendingWrites.peekFirst().hasRemaining()) {
+                        bufferPool.release(pendingWrites.pollFirst());
                     }
                 }
 
-                // Scrive il pacchetto di risposta sul canale
-                if (responseBuffer != null) {
-                    client.write(responseBuffer);
-                    // Se il pacchetto è stato scritto completamente, rimuovilo dalla coda
-                    if (!responseBuffer.hasRemaining()) {
-                        synchronized (responseQueue) {
-                            responseQueue.poll(); // Rimuovi il pacchetto dalla coda
+                // Se non ci sono altre risposte da inviare, smetti di attendere la scrittura
+                if (pendingWrites.isEmpty()) {
+                    synchronized (responseQueue) {
+                        if (responseQueue.isEmpty()) {
+                            disableWriteInterest();
                         }
-                        responseBuffer = null; // Resetta il buffer di risposta
                     }
                 }
 
@@ -159,6 +403,9 @@ public class HotelierServerConnectionClientHandler {
 
     /**
      * Serializza il pacchetto di risposta in un buffer di byte che può essere inviato al client.
+     * Il pacchetto viene scritto direttamente in un buffer del pool, lasciando spazio in testa per l'intestazione;
+     * il buffer va restituito al pool una volta completata la scrittura.
+     * Viene usata la codifica binaria se negoziata con il client, altrimenti JSON.
      *
      * @param packet Il pacchetto di risposta da serializzare.
      * @return Il buffer di byte serializzato che rappresenta il pacchetto di risposta.
@@ -167,12 +414,23 @@ public class HotelierServerConnectionClientHandler {
         try {
             int packetID = messageSerialization.getIDFromPacket(packet); // Ottieni l'ID del pacchetto
             if (packetID != -1) {
-                byte[] serializedPacket = objectMapper.writeValueAsBytes(packet); // Serializza il pacchetto in byte[]
-                int payloadSize = serializedPacket.length;
-                ByteBuffer serializedResponse = ByteBuffer.allocate(4 + 4 + payloadSize).order(ByteOrder.BIG_ENDIAN);
-                serializedResponse.putInt(payloadSize); // Aggiungi la dimensione del payload
-                serializedResponse.putInt(packetID); // Aggiungi l'ID del pacchetto
-                serializedResponse.put(serializedPacket); // Aggiungi i dati serializzati
+                PooledBufferOutputStream outputStream = new PooledBufferOutputStream(bufferPool, 1024);
+                outputStream.getBuffer().position(4 + 4); // Riserva lo spazio per l'intestazione
+                try {
+                    if (binaryEncoding) {
+                        messageBinaryCodec.encode(packet, new DataOutputStream(outputStream)); // Codifica binaria
+                    } else {
+                        objectMapper.writeValue(outputStream, packet); // Serializza il pacchetto JSON nel buffer
+                    }
+                } catch (IOException e) {
+                    bufferPool.release(outputStream.getBuffer());
+                    throw e;
+                }
+                ByteBuffer serializedResponse = outputStream.getBuffer().order(ByteOrder.BIG_ENDIAN);
+                int payloadSize = serializedResponse.position() - (4 + 4);
+                serializedResponse.putInt(0, payloadSize); // Aggiungi la dimensione del payload
+                // Aggiungi l'ID del pacchetto e l'identificativo di correlazione
+                serializedResponse.putInt(4, messageSerialization.composeHeaderID(packetID, packet.getCorrelationID(), binaryEncoding));
                 serializedResponse.flip(); // Imposta la posizione del buffer per la lettura
                 return serializedResponse;
             }
@@ -186,15 +444,20 @@ public class HotelierServerConnectionClientHandler {
      * Deserializza il pacchetto di richiesta a partire dai dati binari del payload.
      *
      * @param packetID L'ID del pacchetto per determinare il tipo di pacchetto.
+     * @param binaryRequest true se il payload è codificato con messageBinaryCodec, false se è JSON.
      * @param requestPayload Il buffer del payload da deserializzare.
-     * @return Il pacchetto deserializzato.
+     * @return Il pacchetto deserializzato, o null se il payload JSON non è valido.
+     * @throws IOException Se il payload binario non è valido: la connessione viene chiusa, perché il client non
+     *                     rispetta il formato del codec.
      */
-    private Request_ResponseMessage deserializeRequest(int packetID, ByteBuffer requestPayload) {
-        byte[] payloadBytes = new byte[requestPayload.remaining()]; // Converte il payload in un array di byte
-        requestPayload.get(payloadBytes);
+    private Request_ResponseMessage deserializeRequest(int packetID, boolean binaryRequest, ByteBuffer requestPayload) throws IOException {
+        // Deserializza il pacchetto leggendo direttamente dal buffer, senza copiarlo in un byte[]
+        var payloadStream = new ByteBufferInputStream(requestPayload);
+        if (binaryRequest) {
+            return messageBinaryCodec.decode(packetID, new DataInputStream(payloadStream));
+        }
         try {
-            // Deserializza il pacchetto dal byte[] usando ObjectMapper
-            Request_ResponseMessage packet = objectMapper.readValue(payloadBytes, Request_ResponseMessage.class);
+            Request_ResponseMessage packet = objectMapper.readValue(payloadStream, Request_ResponseMessage.class);
             return packet; // Restituisce il pacchetto deserializzato
         } catch (IOException e) {
             System.err.println("Error deserializing request: " + e.getMessage());
@@ -202,6 +465,39 @@ public class HotelierServerConnectionClientHandler {
         }
     }
 
+    /**
+     * Calcola l'istante entro cui la connessione deve mostrare attività per non essere chiusa dal reactor:
+     * la fine del timeout di lettura se un pacchetto è stato ricevuto solo in parte, altrimenti la fine del
+     * timeout di inattività a partire dall'ultima lettura o scrittura.
+     * Va invocato dal thread del reactor.
+     *
+     * @param idleTimeoutMs Timeout di inattività della connessione (0 = nessun limite).
+     * @param readTimeoutMs Timeout di ricezione di un pacchetto iniziato (0 = nessun limite).
+     * @return L'istante limite in millisecondi, Long.MAX_VALUE se non ci sono limiti.
+     */
+    public long getTimeoutDeadlineMs(long idleTimeoutMs, long readTimeoutMs) {
+        long deadline = idleTimeoutMs > 0 ? lastActivityMs + idleTimeoutMs : Long.MAX_VALUE;
+        if (frameStartMs != 0 && readTimeoutMs > 0) {
+            deadline = Math.min(deadline, frameStartMs + readTimeoutMs);
+        }
+        return deadline;
+    }
+
+    /**
+     * Verifica se un pacchetto è stato ricevuto solo in parte e il suo timeout di lettura non è ancora controllato
+     * dal reactor; in tal caso lo segna come controllato.
+     * Va invocato dal thread del reactor.
+     *
+     * @return true se il reactor deve avviare il controllo del timeout di lettura.
+     */
+    public boolean armReadTimeout() {
+        if (frameStartMs == 0 || readTimeoutArmed) {
+            return false;
+        }
+        readTimeoutArmed = true;
+        return true;
+    }
+
     /**
      * Verifica se il client è ancora connesso.
      *
@@ -217,7 +513,37 @@ public class HotelierServerConnectionClientHandler {
      * @throws IOException Se si verifica un errore durante la chiusura della connessione.
      */
     public void close() throws IOException {
-        hotelierMessageManager.handleClientDisconnect(); // Gestisce la disconnessione del client
+        // Se una richiesta è in elaborazione sul pool la disconnessione viene accodata dopo di essa, così il
+        // thread del reactor non attende mai l'elaborazione delle richieste (ad esempio l'hash di un login)
+        boolean notifyNow;
+        synchronized (pendingRequests) {
+            notifyNow = !processingRequests;
+            if (!notifyNow) {
+                disconnectPending = true;
+            }
+        }
+        if (notifyNow) {
+            notifyDisconnect(); // Nessun task attivo: gestisce subito la disconnessione del client
+        }
+        // Restituisce al pool gli eventuali buffer in uso
+        bufferPool.release(requestPayload);
+        requestPayload = null;
+        while (!pendingWrites.isEmpty()) {
+            bufferPool.release(pendingWrites.pollFirst());
+        }
         client.close(); // Chiude il canale di comunicazione con il client
     }
+
+    /**
+     * Notifica la disconnessione del client al gestore dei messaggi. Viene invocato una sola volta, quando nessun
+     * task di elaborazione delle richieste della connessione è attivo.
+     */
+    private void notifyDisconnect() {
+        try {
+            hotelierMessageManager.handleClientDisconnect(); // Gestisce la disconnessione del client
+        } catch (RuntimeException e) {
+            // Un errore nella disconnessione non deve impedire la chiusura della connessione
+            e.printStackTrace();
+        }
+    }
 }
@@ -5,33 +5,48 @@ import model.Hotel;
 import model.Recensioni;
 import model.Utente;
 import server.HotelierServerHotelManager;
+import server.HotelierServerPersistenceService;
+import server.HotelierServerRankPushService;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.net.SocketAddress;
 
 /**
  * Questa classe gestisce i pacchetti di messaggi ricevuti dal client e fornisce risposte
  * appropriate in base al tipo di richiesta. Si occupa di operazioni come login, logout,
  * ricerca di hotel, inserimento recensioni, e gestione dei badge.
  * Inoltre, gestisce la disconnessione dei client e l'aggiornamento dei dati degli hotel e degli utenti.
+ * Esiste un'istanza per connessione: le richieste della connessione e la sua disconnessione le vengono passate
+ * una alla volta e in ordine dall'handler della connessione, quindi i metodi non richiedono sincronizzazione.
  */
 public class HotelierServerMessageManager {
 
     private Utente userClient; // L'utente attualmente loggato
+    private String sessionToken; // Token di sessione dell'utente attualmente loggato
+    private LoginHandlerUtente.Sessione session; // Sessione di login dell'utente attualmente loggato
+    private final SocketAddress clientAddress; // Indirizzo del client della connessione
+    private final HotelierServerConnectionClientHandler connection; // Connessione del client, destinataria degli aggiornamenti del rank
     private final HotelierServerHotelManager hotelManager; // Gestore degli hotel
     private final HotelierServerUserManager userManager; // Gestore degli utenti
     private final HotelierServerReviewManager reviewManager; // Gestore delle recensioni
     private final LoginHandlerUtente loginHandler; // Gestore delle sessioni di login
+    private final HotelierServerPersistenceService persistenceService; // Servizio di persistenza in background
+    private final HotelierServerRankPushService rankPushService; // Servizio di invio degli aggiornamenti del rank locale
 
     /**
      * Costruttore della classe che inizializza i vari gestori per la gestione degli hotel,
      * degli utenti, delle recensioni e delle sessioni di login.
+     *
+     * @param connection La connessione del client; il suo indirizzo viene registrato nella sessione di login.
      */
-    public HotelierServerMessageManager(){
+    public HotelierServerMessageManager(HotelierServerConnectionClientHandler connection){
+        this.connection = connection;
+        clientAddress = connection.getClientAddress();
         hotelManager = HotelierServerHotelManager.getInstance();
         userManager = HotelierServerUserManager.getInstance();
         reviewManager = HotelierServerReviewManager.getInstance();
         loginHandler = LoginHandlerUtente.getInstance();
+        persistenceService = HotelierServerPersistenceService.getInstance();
+        rankPushService = HotelierServerRankPushService.getInstance();
     }
 
     /**
@@ -43,6 +58,13 @@ public class HotelierServerMessageManager {
      */
     public Request_ResponseMessage handlePacket(Request_ResponseMessage packet) {
 
+        // Registra l'attività della sessione; se è scaduta per inattività l'utente risulta non più loggato
+        if (session != null && !loginHandler.touch(session)) {
+            userClient = null;
+            session = null;
+            sessionToken = null;
+        }
+
         // Gestione del pacchetto in base al tipo specifico
         return switch (packet) {
             case loginMessageRequest loginPacket -> handleLoginPacket((loginMessageRequest) packet);
@@ -51,6 +73,9 @@ public class HotelierServerMessageManager {
             case searchAllHotelsMessage hotelListPacket -> handleHotelListPacket((searchAllHotelsMessage) packet);
             case insertReviewRequestMessage reviewPacket -> handleReviewPacket((insertReviewRequestMessage) packet);
             case badgeLevelMessageRequest badgePacket -> handleBadgePacket((badgeLevelMessageRequest) packet);
+            case subscribeRankMessageRequest subscribePacket -> handleSubscribeRankPacket((subscribeRankMessageRequest) packet);
+            case unsubscribeRankMessageRequest unsubscribePacket -> handleUnsubscribeRankPacket((unsubscribeRankMessageRequest) packet);
+            case localRankSyncMessageRequest syncPacket -> handleLocalRankSyncPacket((localRankSyncMessageRequest) packet);
             default -> packetErrorResponse("Errore: Pacchetto non supportato!");
         };
     }
@@ -71,6 +96,8 @@ public class HotelierServerMessageManager {
     /**
      * Gestisce la richiesta di login. Se il login ha successo, restituisce una risposta di successo,
      * altrimenti una risposta di errore.
+     * Se il client presenta un token di sessione valido l'utente viene autenticato senza verificare la password;
+     * altrimenti viene verificata la password e rilasciato un nuovo token, restituito nella risposta.
      *
      * @param packet Il pacchetto di richiesta di login.
      * @return Il pacchetto di risposta con il risultato del login.
@@ -93,24 +120,36 @@ public class HotelierServerMessageManager {
             return packetErrorResponse("Utente non esiste, si prega di effettuare la registrazione!");
         }
 
-        // Autenticazione dell'utente con username e password
-        var user = userManager.Authentication(username, password);
-        // Se la password è errata, restituisce un errore
+        // Autenticazione tramite token di sessione (evita il calcolo dell'hash della password)
+        var token = packet.getSessionToken();
+        var user = userManager.authenticateSessionToken(username, token);
         if (user == null) {
-            return packetErrorResponse("Password errata!");
+            // Autenticazione dell'utente con username e password
+            user = userManager.Authentication(username, password);
+            // Se la password è errata, restituisce un errore
+            if (user == null) {
+                return packetErrorResponse("Password errata!");
+            }
+            token = null;
         }
 
-        // Verifica che l'utente non sia già loggato su un altro client
-        if (loginHandler.userIsLogged(user)) {
+        // Se l'autenticazione ha successo, apre la sessione dell'utente, verificando che non sia già loggato
+        // su un altro client
+        var newSession = loginHandler.addLoggedUser(user, clientAddress);
+        if (newSession == null) {
             return packetErrorResponse("Sessione già attiva per utente " + user.getUsername() + " su un altro client");
         }
-
-        // Se l'autenticazione ha successo, registra l'utente come loggato
         userClient = user;
-        loginHandler.addLoggedUser(userClient);
+        session = newSession;
 
-        // Restituisce una risposta di successo per il login
-        loginResponseMessage packetLoginResponse = new loginResponseMessage("Login effettuato correttamente!");
+        // Rilascia un nuovo token se l'utente si è autenticato con la password
+        if (token == null) {
+            token = userManager.issueSessionToken(user);
+        }
+        sessionToken = token;
+
+        // Restituisce una risposta di successo per il login, con il token di sessione
+        loginResponseMessage packetLoginResponse = new loginResponseMessage("Login effettuato correttamente!", token);
         return packetLoginResponse;
     }
 
@@ -128,9 +167,14 @@ public class HotelierServerMessageManager {
             return packetErrorResponse("Utente non loggato. Effettua il login prima di eseguire il logout.");
         }
 
-        // Rimuove l'utente dalla lista degli utenti loggati e resetta l'utente
-        loginHandler.removeUser(userClient);
+        // Chiude la sessione dell'utente, annulla l'iscrizione agli aggiornamenti del rank e resetta l'utente
+        loginHandler.removeUser(session);
+        rankPushService.unsubscribe(connection);
         userClient = null;
+        session = null;
+        // Con il logout esplicito il token di sessione non è più valido
+        userManager.revokeSessionToken(sessionToken);
+        sessionToken = null;
 
         // Restituisce una risposta di successo per il logout
         logoutResponseMessage packetLogoutResponse = new logoutResponseMessage("Logout effettuato correttamente!");
@@ -172,17 +216,15 @@ public class HotelierServerMessageManager {
         // Estrae la città degli hotel dal pacchetto
         var city = packet.getCity();
 
-        // Ottiene la lista degli hotel nella città specificata
-        var hotels = hotelManager.getHotelsByCity(city);
+        // Ottiene la lista degli hotel nella città specificata, già ordinata per rank locale dall'algoritmo di ranking
+        var hotels = hotelManager.getRankedHotelsByCity(city);
         if (hotels.isEmpty()) {
             // Se nessun hotel è trovato, restituisce un errore
             return packetErrorResponse("Nessun hotel trovato.");
         }
 
-        // Ordina la lista degli hotel in base al ranking locale
-        Collections.sort(hotels, Comparator.comparingInt(Hotel::getLocalRank));
-
-        // Restituisce la lista di hotel ordinata
+        // Restituisce la lista di hotel ordinata; la lista è condivisa, il pacchetto (che riceve l'identificativo
+        // di correlazione della richiesta) è creato per ogni risposta
         searchAllHotelsResponseMessage packetHotelListResponse = new searchAllHotelsResponseMessage(hotels);
         return packetHotelListResponse;
     }
@@ -215,14 +257,14 @@ public class HotelierServerMessageManager {
 
         // Crea una nuova recensione
         var review = new Recensioni(userClient.getUsername(), hotel.getId(), rate, rating);
-        // Aggiunge la recensione e la persiste
+        // Aggiunge la recensione e la segnala per la persistenza
         reviewManager.addReview(review);
-        reviewManager.serialize();
+        persistenceService.markReviewsDirty();
 
         // Incrementa il numero di recensioni dell'utente e aggiorna il suo badge
         userClient.incrementReviewCount();
         userClient.updateBadge();
-        userManager.serialize();
+        persistenceService.markUsersDirty();
 
         // Aggiorna il punteggio medio dell'hotel
         updateHotelRate(hotel, review);
@@ -230,7 +272,9 @@ public class HotelierServerMessageManager {
 
         // Incrementa il numero di recensioni per l'hotel
         hotel.incrementReviews();
-        hotelManager.serialize();
+        persistenceService.markHotelsDirty();
+        // Segnala l'hotel all'algoritmo di ranking, che ne ricalcolerà il rank al prossimo ciclo
+        hotelManager.markHotelDirty(hotel);
 
         // Restituisce una risposta di successo per la recensione
         insertReviewResponseMessage packetReviewResponse = new insertReviewResponseMessage("Recensione registrata con successo.");
@@ -256,14 +300,84 @@ public class HotelierServerMessageManager {
     }
 
     /**
-     * Gestisce la disconnessione del client, rimuovendo l'utente dalla lista degli utenti loggati.
+     * Gestisce la richiesta di iscrizione agli aggiornamenti del rank locale delle città di interesse.
+     * Gli aggiornamenti vengono poi inviati dal server sulla connessione del client, senza richiesta.
+     *
+     * @param packet Il pacchetto di richiesta con le città di interesse.
+     * @return Il pacchetto di risposta con il risultato dell'iscrizione.
+     */
+    private Request_ResponseMessage handleSubscribeRankPacket(subscribeRankMessageRequest packet) {
+
+        // Verifica che l'utente sia loggato prima di registrare le città di interesse
+        if (userClient == null) {
+            return packetErrorResponse("Utente non loggato. Effettua il login per registrare le città di interesse.");
+        }
+
+        // Verifica che sia stata specificata almeno una città
+        var cities = packet.getCities();
+        if (cities == null || cities.isEmpty()) {
+            return packetErrorResponse("Nessuna città di interesse specificata!");
+        }
+
+        // Registra la connessione per le città indicate (sostituendo un'eventuale iscrizione precedente)
+        rankPushService.subscribe(connection, cities);
+        subscribeRankResponseMessage packetSubscribeResponse = new subscribeRankResponseMessage("Città di interesse registrate correttamente!");
+        return packetSubscribeResponse;
+    }
+
+    /**
+     * Gestisce la richiesta di annullamento dell'iscrizione agli aggiornamenti del rank locale.
+     *
+     * @param packet Il pacchetto di richiesta di annullamento.
+     * @return Il pacchetto di risposta con il risultato dell'operazione.
+     */
+    private Request_ResponseMessage handleUnsubscribeRankPacket(unsubscribeRankMessageRequest packet) {
+
+        // Rimuove l'iscrizione della connessione (se presente)
+        rankPushService.unsubscribe(connection);
+        unsubscribeRankResponseMessage packetUnsubscribeResponse = new unsubscribeRankResponseMessage("Città di interesse rimosse correttamente!");
+        return packetUnsubscribeResponse;
+    }
+
+    /**
+     * Gestisce la richiesta del ranking locale completo di una città, inviata dal client che ha perso una versione
+     * degli aggiornamenti e deve riallineare la propria copia.
+     *
+     * @param packet Il pacchetto di richiesta con la città.
+     * @return Il pacchetto di risposta con il ranking locale e la sua versione, o un errore.
+     */
+    private Request_ResponseMessage handleLocalRankSyncPacket(localRankSyncMessageRequest packet) {
+
+        // Verifica che l'utente sia loggato prima di restituire il ranking
+        if (userClient == null) {
+            return packetErrorResponse("Utente non loggato. Effettua il login per ricevere il rank locale.");
+        }
+
+        // Costruisce il ranking completo nella versione corrente
+        var city = packet.getCity();
+        var packetSyncResponse = city == null ? null : rankPushService.createSyncResponse(city);
+        if (packetSyncResponse == null) {
+            return packetErrorResponse("Città non trovata!");
+        }
+        return packetSyncResponse;
+    }
+
+    /**
+     * Gestisce la disconnessione del client, chiudendo la sessione di login dell'utente.
+     * L'eventuale iscrizione agli aggiornamenti del rank locale viene annullata.
+     * Il token di sessione resta valido, così che il client possa ricollegarsi senza ricalcolare l'hash della password.
      */
     public void handleClientDisconnect() {
 
+        // La connessione chiusa non deve più ricevere aggiornamenti
+        rankPushService.unsubscribe(connection);
+
         // Verifica se l'utente era loggato prima di procedere
         if (userClient != null) {
-            loginHandler.removeUser(userClient);
+            loginHandler.removeUser(session);
             userClient = null;
+            session = null;
+            sessionToken = null;
         }
     }
 
@@ -0,0 +1,118 @@
+package server.Handlers;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * La classe HotelierServerPasswordHasher calcola e verifica gli hash delle password degli utenti con PBKDF2
+ * (HMAC-SHA256) e un salt casuale per ogni utente.
+ * L'hash viene memorizzato nel campo password dell'utente nel formato:
+ * pbkdf2-sha256$iterazioni$salt$hash (salt e hash codificati in Base64)
+ * Il numero di iterazioni (fattore di lavoro) è salvato insieme all'hash, per cui può essere aumentato dalla config
+ * del server senza invalidare le password già salvate: vengono ricalcolate al successivo login.
+ */
+public class HotelierServerPasswordHasher {
+
+    // Prefisso degli hash calcolati da questa classe
+    private static final String PREFIX = "pbkdf2-sha256";
+    // Algoritmo di derivazione della chiave
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    // Lunghezza del salt e dell'hash (byte)
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+
+    // Generatore dei salt
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Calcola l'hash di una password con un nuovo salt casuale.
+     *
+     * @param password La password in chiaro.
+     * @param iterations Il numero di iterazioni di PBKDF2.
+     * @return L'hash nel formato memorizzato nell'utente.
+     */
+    public static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Verifica una password in chiaro rispetto all'hash memorizzato.
+     * Il confronto tra gli hash avviene in tempo costante.
+     *
+     * @param password La password in chiaro.
+     * @param stored L'hash memorizzato nell'utente.
+     * @return true se la password corrisponde, false altrimenti (anche se l'hash non è valido).
+     */
+    public static boolean verify(String password, String stored) {
+        if (password == null || !isHashed(stored)) {
+            return false;
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, iterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifica se il valore memorizzato è un hash calcolato da questa classe (e non una password in chiaro
+     * salvata da una versione precedente del server).
+     *
+     * @param stored Il valore del campo password dell'utente.
+     * @return true se è un hash.
+     */
+    public static boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX + "$");
+    }
+
+    /**
+     * Verifica se l'hash memorizzato va ricalcolato perché calcolato con un numero di iterazioni diverso da quello
+     * attualmente configurato.
+     *
+     * @param stored L'hash memorizzato nell'utente.
+     * @param iterations Il numero di iterazioni configurato.
+     * @return true se l'hash va ricalcolato.
+     */
+    public static boolean needsRehash(String stored, int iterations) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || !parts[1].equals(Integer.toString(iterations));
+    }
+
+    /**
+     * Deriva l'hash di una password con PBKDF2.
+     *
+     * @param password La password in chiaro.
+     * @param salt Il salt.
+     * @param iterations Il numero di iterazioni.
+     * @return L'hash derivato.
+     */
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA256 è sempre disponibile nella JDK
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -2,24 +2,49 @@ package server.Handlers;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import model.Hotel;
 import model.Recensioni;
 import model.Utente;
-import org.apache.commons.lang3.StringUtils;
+import server.config.ConfigManager;
 import utils.JsonUtils;
 
+import static server.config.ServerJsonSettings.REVIEWS_COMPACTING_LOG_PATH;
+import static server.config.ServerJsonSettings.REVIEWS_LOG_PATH;
 import static server.config.ServerJsonSettings.REVIEWS_PATH_JSON;
 
 /**
  * La classe HotelierServerReviewManager gestisce le recensioni all'interno del sistema Hotelier.
  * Fornisce metodi per aggiungere recensioni, recuperare recensioni per un utente o per un hotel,
- * e serializzare/deserializzare le recensioni per la persistenza su disco tramite JSON.
+ * e persistere le recensioni su disco.
+ * Ogni nuova recensione viene scritta in coda a un log append-only (una riga per recensione, con numero di sequenza),
+ * sincronizzato su disco a intervalli dal servizio di persistenza; quando il log supera reviewLogCompactionBytes
+ * (config del server) viene compattato nello snapshot JSON. All'avvio lo snapshot viene letto e il log riapplicato.
+ * Il caricamento avviene in background mentre il server è già in ascolto: lo snapshot viene letto a blocchi e ogni
+ * blocco viene convertito in parallelo; i metodi che leggono o modificano le recensioni attendono la fine del caricamento.
  * Utilizza una lista sincronizzata per garantire l'accesso concorrente sicuro alle recensioni.
+ * Oltre alla lista, mantiene due indici secondari (per ID hotel e per username in minuscolo), protetti dalla
+ * stessa lock, in modo che le ricerche per hotel e per utente non debbano scorrere tutte le recensioni.
+ * Per ogni hotel vengono inoltre tenuti degli aggregati (numero di recensioni e somma dei giorni di pubblicazione),
+ * usati dall'algoritmo di ranking per calcolare l'età media delle recensioni senza rileggerle.
  */
 public class HotelierServerReviewManager {
 
@@ -41,97 +66,389 @@ public class HotelierServerReviewManager {
     // Lista di recensioni del sistema
     private List<Recensioni> reviews;
 
+    // Indice delle recensioni per ID dell'hotel (protetto dalla lock su reviews)
+    private final Map<Integer, List<Recensioni>> reviewsByHotel;
+
+    // Indice delle recensioni per username in minuscolo (protetto dalla lock su reviews)
+    private final Map<String, List<Recensioni>> reviewsByUser;
+
+    // Aggregati delle recensioni per ID dell'hotel (protetti dalla lock su reviews)
+    private final Map<Integer, ReviewAggregate> aggregatesByHotel;
+
+    // Soglia di compattazione del log se non specificata nella config (byte)
+    private static final long DEFAULT_COMPACTION_THRESHOLD_BYTES = 4L * 1024 * 1024;
+
+    // Segmento di log attivo in cui vengono accodate le nuove recensioni (protetto dalla lock su reviews)
+    private FileChannel reviewLog;
+    // Dimensione del log oltre la quale viene compattato nello snapshot
+    private final long compactionThresholdBytes;
+    // true se la prossima sincronizzazione deve compattare il log (ad esempio dopo un errore di scrittura)
+    private volatile boolean compactionRequested;
+
+    // Numero di recensioni dello snapshot convertite da ciascun task durante il caricamento
+    private static final int LOAD_CHUNK_SIZE = 1024;
+
+    // Sbloccato al termine del caricamento delle recensioni da disco
+    private final CountDownLatch loaded;
+
     /**
-     * Costruttore della classe, inizializza la lista delle recensioni.
+     * Aggregati delle recensioni di un hotel: numero di recensioni e somma dei giorni (epoch-day) di pubblicazione.
+     */
+    private static class ReviewAggregate {
+        private long reviewCount;
+        private long epochDaySum;
+    }
+
+    /**
+     * Costruttore della classe, inizializza la lista delle recensioni e gli indici.
      */
     private HotelierServerReviewManager() {
         reviews = new ArrayList<>();
+        reviewsByHotel = new HashMap<>();
+        reviewsByUser = new HashMap<>();
+        aggregatesByHotel = new HashMap<>();
+        loaded = new CountDownLatch(1);
+        var serverConfig = ConfigManager.getServerConfig();
+        compactionThresholdBytes = serverConfig != null && serverConfig.getReviewLogCompactionBytes() > 0
+                ? serverConfig.getReviewLogCompactionBytes()
+                : DEFAULT_COMPACTION_THRESHOLD_BYTES;
     }
 
     /**
-     * Aggiunge una recensione alla lista delle recensioni.
+     * Aggiunge una recensione alla lista delle recensioni e la accoda al log su disco.
      * La lista è sincronizzata per garantire che le operazioni di scrittura siano sicure in un contesto multithreading.
      *
      * @param review La recensione da aggiungere alla lista.
      */
     public void addReview(Recensioni review) {
+        awaitLoaded();
         synchronized (reviews) {
             reviews.add(review);
+            indexReview(review, epochDayOf(review));
+            appendToLog(reviews.size() - 1, review);
         }
     }
 
     /**
      * Restituisce tutte le recensioni effettuate da un utente specifico.
-     * Utilizza un ciclo per scorrere tutte le recensioni e confrontare l'username dell'utente.
-     * La lista risultante è sincronizzata per evitare problemi di accesso concorrente.
+     * Le recensioni vengono lette dall'indice per username (confronto case insensitive).
+     * La lista restituita è una copia, quindi può essere usata senza tenere la lock.
      *
      * @param user L'utente di cui recuperare le recensioni.
      * @return Una lista di recensioni effettuate dall'utente.
      */
     public List<Recensioni> getUserReviews(Utente user) {
-        List<Recensioni> userReviews = new LinkedList<>();
+        if (user.getUsername() == null) {
+            return new ArrayList<>();
+        }
+        awaitLoaded();
         synchronized (reviews) {
-            for (Recensioni review : reviews) {
-                // Confronta l'username in modo case insensitive
-                if (StringUtils.equalsIgnoreCase(user.getUsername(), review.getUsername())) {
-                    userReviews.add(review);
-                }
-            }
+            var userReviews = reviewsByUser.get(normalizeUsername(user.getUsername()));
+            return userReviews == null ? new ArrayList<>() : new ArrayList<>(userReviews);
         }
-        return userReviews;
     }
 
     /**
      * Restituisce tutte le recensioni associate a un hotel specifico.
-     * La lista delle recensioni per un hotel viene filtrata per id dell'hotel e restituita.
+     * Le recensioni vengono lette dall'indice per ID dell'hotel e restituite in una copia.
      *
      * @param hotel L'hotel di cui recuperare le recensioni.
      * @return Una lista di recensioni per l'hotel specificato.
      */
     public List<Recensioni> getHotelReviews(Hotel hotel) {
-        List<Recensioni> hotelReviews = new LinkedList<>();
+        awaitLoaded();
         synchronized (reviews) {
-            for (Recensioni review : reviews) {
-                // Confronta l'ID dell'hotel nella recensione con l'ID dell'hotel passato
-                if (review.gethotelID() == hotel.getId()) {
-                    hotelReviews.add(review);
-                }
+            var hotelReviews = reviewsByHotel.get(hotel.getId());
+            return hotelReviews == null ? new ArrayList<>() : new ArrayList<>(hotelReviews);
+        }
+    }
+
+    /**
+     * Restituisce la somma dei giorni trascorsi dalla pubblicazione di ciascuna recensione dell'hotel,
+     * calcolata in tempo costante a partire dagli aggregati dell'hotel.
+     *
+     * @param hotel L'hotel di cui calcolare l'età complessiva delle recensioni.
+     * @param todayEpochDay Il giorno corrente (epoch-day) rispetto a cui calcolare i giorni trascorsi.
+     * @return La somma dei giorni trascorsi dalla pubblicazione delle recensioni dell'hotel.
+     */
+    public long getTotalReviewAgeDays(Hotel hotel, long todayEpochDay) {
+        awaitLoaded();
+        synchronized (reviews) {
+            var aggregate = aggregatesByHotel.get(hotel.getId());
+            if (aggregate == null) {
+                return 0;
+            }
+            return aggregate.reviewCount * todayEpochDay - aggregate.epochDaySum;
+        }
+    }
+
+    /**
+     * Aggiunge una recensione agli indici per hotel e per utente e agli aggregati dell'hotel.
+     * Va invocato tenendo la lock sulla lista delle recensioni.
+     *
+     * @param review La recensione da indicizzare.
+     * @param epochDay Il giorno di pubblicazione della recensione (vedi epochDayOf).
+     */
+    private void indexReview(Recensioni review, long epochDay) {
+        reviewsByHotel.computeIfAbsent(review.gethotelID(), hotelID -> new ArrayList<>()).add(review);
+        var aggregate = aggregatesByHotel.computeIfAbsent(review.gethotelID(), hotelID -> new ReviewAggregate());
+        aggregate.reviewCount++;
+        aggregate.epochDaySum += epochDay;
+        if (review.getUsername() != null) {
+            reviewsByUser.computeIfAbsent(normalizeUsername(review.getUsername()), username -> new ArrayList<>()).add(review);
+        }
+    }
+
+    /**
+     * Restituisce il giorno di pubblicazione (epoch-day) di una recensione. Il timestamp viene letto una sola volta,
+     * all'inserimento o al caricamento della recensione.
+     *
+     * @param review La recensione.
+     * @return Il giorno di pubblicazione.
+     */
+    private static long epochDayOf(Recensioni review) {
+        return LocalDateTime.parse(review.getTimestamp()).toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Attende la fine del caricamento delle recensioni da disco.
+     */
+    private void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Normalizza un username per l'uso come chiave dell'indice (confronto case insensitive).
+     *
+     * @param username L'username da normalizzare.
+     * @return L'username in minuscolo.
+     */
+    private static String normalizeUsername(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Scrive la recensione in coda al segmento di log attivo, come riga "numero di sequenza TAB recensione in JSON".
+     * Va invocato tenendo la lock sulla lista delle recensioni, subito dopo aver aggiunto la recensione alla lista:
+     * il numero di sequenza coincide con la posizione della recensione nella lista.
+     * In caso di errore la recensione resta in memoria e viene richiesta una compattazione, che la salverà nello snapshot.
+     *
+     * @param sequence Il numero di sequenza della recensione.
+     * @param review La recensione da scrivere.
+     */
+    private void appendToLog(long sequence, Recensioni review) {
+        try {
+            if (reviewLog == null) {
+                throw new IOException("Log delle recensioni non aperto");
+            }
+            String record = sequence + "\t" + JsonUtils.serializeCompact(review) + "\n";
+            var buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                reviewLog.write(buffer);
             }
+        } catch (IOException exception) {
+            exception.printStackTrace();
+            compactionRequested = true;
+        }
+    }
+
+    /**
+     * Rende persistenti su disco (fsync) le recensioni scritte nel log dall'ultima chiamata.
+     * Viene invocato periodicamente dal servizio di persistenza, così che più inserimenti condividano un'unica fsync.
+     * Se il log ha superato la soglia di compattazione (o la compattazione è stata richiesta) lo compatta nello snapshot.
+     */
+    public void syncLog() {
+        awaitLoaded();
+        FileChannel log;
+        synchronized (reviews) {
+            log = reviewLog;
+        }
+        try {
+            if (log != null) {
+                log.force(false);
+            }
+            if (compactionRequested || (log != null && log.size() >= compactionThresholdBytes)) {
+                compact();
+            }
+        } catch (IOException exception) {
+            exception.printStackTrace();
         }
-        return hotelReviews;
     }
 
     /**
-     * Serializza la lista delle recensioni in formato JSON e la scrive su un file per la persistenza.
-     * Se si verifica un errore di scrittura, viene stampato lo stack trace.
+     * Compatta il log delle recensioni nello snapshot JSON:
+     * 1. sotto lock, chiude il segmento attivo, lo rinomina come segmento in compattazione e ne apre uno nuovo
+     *    (se un segmento in compattazione esiste già, per una compattazione precedente fallita, vi accoda il contenuto);
+     * 2. senza lock, scrive lo snapshot di tutte le recensioni presenti al momento della rotazione;
+     * 3. cancella il segmento in compattazione, ormai contenuto nello snapshot.
+     * Un crash in qualsiasi punto lascia su disco uno snapshot completo e i segmenti necessari a ricostruire il resto.
+     * Va invocato da un solo thread alla volta (il servizio di persistenza, o l'avvio del server).
      */
-    public void serialize() {
+    public void compact() {
+        List<Recensioni> snapshot;
         try {
             synchronized (reviews) {
-                String reviewsJson = JsonUtils.serialize(reviews);
-                // Scrive le recensioni serializzate su disco
-                JsonUtils.writeFile(reviewsJson, new File(REVIEWS_PATH_JSON));
+                if (reviewLog != null) {
+                    reviewLog.force(false);
+                    reviewLog.close();
+                    reviewLog = null;
+                }
+                var activeSegment = Path.of(REVIEWS_LOG_PATH);
+                var compactingSegment = Path.of(REVIEWS_COMPACTING_LOG_PATH);
+                if (Files.exists(activeSegment)) {
+                    if (Files.exists(compactingSegment)) {
+                        Files.write(compactingSegment, Files.readAllBytes(activeSegment), StandardOpenOption.APPEND);
+                        Files.delete(activeSegment);
+                    } else {
+                        Files.move(activeSegment, compactingSegment, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                openLog();
+                snapshot = new ArrayList<>(reviews);
+                compactionRequested = false;
             }
+
+            // Lo snapshot sostituisce atomicamente quello precedente
+            JsonUtils.writeJsonFile(snapshot, new File(REVIEWS_PATH_JSON));
+            Files.deleteIfExists(Path.of(REVIEWS_COMPACTING_LOG_PATH));
         } catch (IOException exception) {
             exception.printStackTrace();
+            compactionRequested = true;
         }
     }
 
     /**
-     * Deserializza le recensioni da un file JSON e le aggiunge alla lista delle recensioni nel sistema.
+     * Apre (creandolo se necessario) il segmento di log attivo in modalità append.
+     * Va invocato tenendo la lock sulla lista delle recensioni.
+     *
+     * @throws IOException Se il file non può essere aperto.
+     */
+    private void openLog() throws IOException {
+        reviewLog = FileChannel.open(Path.of(REVIEWS_LOG_PATH), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Rilegge un segmento di log e aggiunge alla lista le recensioni non ancora presenti nello snapshot.
+     * Le righe con numero di sequenza già presente vengono saltate; la lettura si interrompe alla prima riga
+     * non valida (ad esempio una scrittura interrotta da un crash) o non consecutiva.
+     * Va invocato tenendo la lock sulla lista delle recensioni.
+     *
+     * @param segment Il segmento da rileggere.
+     * @throws IOException Se si verifica un errore di lettura.
+     */
+    private void replaySegment(Path segment) throws IOException {
+        if (!Files.exists(segment)) {
+            return;
+        }
+        try (var reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Recensioni review;
+                long sequence;
+                try {
+                    int separator = line.indexOf('\t');
+                    sequence = Long.parseLong(line.substring(0, separator));
+                    review = JsonUtils.deserialize(line.substring(separator + 1), Recensioni.class);
+                } catch (RuntimeException | IOException exception) {
+                    System.out.println("[WARN] Record non valido nel log delle recensioni " + segment + ", rilettura interrotta");
+                    return;
+                }
+                if (sequence < reviews.size()) {
+                    continue;  // Recensione già presente nello snapshot
+                }
+                if (sequence > reviews.size()) {
+                    System.out.println("[WARN] Record mancanti nel log delle recensioni " + segment + ", rilettura interrotta");
+                    return;
+                }
+                reviews.add(review);
+                indexReview(review, epochDayOf(review));
+            }
+        }
+    }
+
+    /**
+     * Blocco di recensioni dello snapshot già convertite, con i rispettivi giorni di pubblicazione.
+     */
+    private static class LoadedChunk {
+        private final List<Recensioni> reviews;
+        private final long[] epochDays;
+
+        private LoadedChunk(List<Recensioni> reviews, long[] epochDays) {
+            this.reviews = reviews;
+            this.epochDays = epochDays;
+        }
+    }
+
+    /**
+     * Converte un blocco di recensioni lette dallo snapshot e ne calcola i giorni di pubblicazione.
+     * Viene eseguito in parallelo sugli altri blocchi.
+     *
+     * @param nodes Le recensioni del blocco, come alberi JSON.
+     * @return Il blocco convertito.
+     */
+    private static LoadedChunk convertChunk(List<JsonNode> nodes) {
+        List<Recensioni> chunkReviews = new ArrayList<>(nodes.size());
+        long[] epochDays = new long[nodes.size()];
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                var review = JsonUtils.convert(nodes.get(i), Recensioni.class);
+                chunkReviews.add(review);
+                epochDays[i] = epochDayOf(review);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return new LoadedChunk(chunkReviews, epochDays);
+    }
+
+    /**
+     * Deserializza le recensioni dallo snapshot JSON e vi riapplica i segmenti di log, aggiungendole alla lista
+     * delle recensioni nel sistema. Se sono presenti segmenti di log, al termine li compatta in un nuovo snapshot,
+     * altrimenti apre il segmento di log attivo.
+     * Lo snapshot viene letto in streaming a blocchi di LOAD_CHUNK_SIZE recensioni: ogni blocco viene convertito
+     * in parallelo e i risultati vengono aggiunti, nell'ordine originale, alla lista e agli indici.
+     * Al termine (anche in caso di errore) vengono sbloccati i metodi in attesa del caricamento.
      * In caso di errore nella lettura o deserializzazione, viene stampato lo stack trace.
      */
     public void deserialize() {
+        boolean hasSegments;
         try {
             synchronized (reviews) {
                 var reviewFile = new File(REVIEWS_PATH_JSON);
-                var reviewsJSON = JsonUtils.readFile(reviewFile);
-                var deserializedReviews = Arrays.asList(JsonUtils.deserialize(reviewsJSON, Recensioni[].class));
-                // Aggiunge le recensioni deserializzate alla lista
-                reviews.addAll(deserializedReviews);
+                // Legge in streaming lo snapshot a blocchi, avviando la conversione di ogni blocco in parallelo
+                List<CompletableFuture<LoadedChunk>> chunks = new ArrayList<>();
+                JsonUtils.readJsonArrayFileInChunks(reviewFile, LOAD_CHUNK_SIZE,
+                        nodes -> chunks.add(CompletableFuture.supplyAsync(() -> convertChunk(nodes))));
+                // Unisce i blocchi convertiti nella lista e negli indici, nell'ordine dello snapshot
+                for (CompletableFuture<LoadedChunk> chunk : chunks) {
+                    var loadedChunk = chunk.join();
+                    for (int i = 0; i < loadedChunk.reviews.size(); i++) {
+                        reviews.add(loadedChunk.reviews.get(i));
+                        indexReview(loadedChunk.reviews.get(i), loadedChunk.epochDays[i]);
+                    }
+                }
+
+                // Riapplica le recensioni scritte nei segmenti di log dopo l'ultimo snapshot
+                replaySegment(Path.of(REVIEWS_COMPACTING_LOG_PATH));
+                replaySegment(Path.of(REVIEWS_LOG_PATH));
+                hasSegments = Files.exists(Path.of(REVIEWS_COMPACTING_LOG_PATH)) || Files.exists(Path.of(REVIEWS_LOG_PATH));
+                if (!hasSegments) {
+                    openLog();
+                }
             }
-        } catch (IOException exception) {
+            // I segmenti riletti vengono compattati subito, eliminando anche eventuali scritture interrotte
+            if (hasSegments) {
+                compact();
+            }
+        } catch (IOException | CompletionException exception) {
             exception.printStackTrace();
+        } finally {
+            loaded.countDown();
         }
     }
 }
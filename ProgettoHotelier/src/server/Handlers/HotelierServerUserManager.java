@@ -2,21 +2,46 @@ package server.Handlers;
 
 import model.Utente;
 import org.apache.commons.lang3.StringUtils;
+import server.HotelierServerPersistenceService;
+import server.config.ConfigManager;
 import utils.JsonUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
+import static server.config.ServerJsonSettings.USERS_COMPACTING_LOG_PATH;
+import static server.config.ServerJsonSettings.USERS_LOG_PATH;
 import static server.config.ServerJsonSettings.USERS_PATH_JSON;
 
 /**
  * La classe HotelierServerUserManager gestisce gli utenti all'interno del sistema Hotelier.
  * Permette di autenticare gli utenti, registrare nuovi utenti, recuperare un utente tramite nome e serializzare/deserializzare
- * la lista degli utenti per la persistenza su disco. Utilizza una lista sincronizzata per garantire che le operazioni
- * siano sicure in un ambiente multithreading.
+ * la lista degli utenti per la persistenza su disco.
+ * Gli utenti sono indicizzati per username in minuscolo in una ConcurrentHashMap, che suddivide la lock tra i suoi
+ * bucket: login e ricerche non acquisiscono lock globali e non vengono serializzati dietro le registrazioni.
+ * La lista degli utenti (in ordine di registrazione) è usata solo per la persistenza ed è protetta dalla propria lock.
+ * Ogni nuova registrazione viene scritta in coda a un log append-only (un utente per riga), sincronizzato su disco
+ * dal servizio di persistenza; il log viene svuotato a ogni scrittura dello snapshot JSON degli utenti.
+ * Le password sono memorizzate come hash PBKDF2 con salt (vedi HotelierServerPasswordHasher). Poiché la verifica
+ * dell'hash è volutamente costosa, al login viene rilasciato un token di sessione: un client che si ricollega
+ * presentando il token ancora valido viene autenticato con un accesso alla mappa dei token, senza ricalcolare l'hash.
+ * Il caricamento degli utenti da disco avviene in background all'avvio del server: i metodi che leggono o modificano
+ * gli utenti attendono la fine del caricamento.
  */
 public class HotelierServerUserManager {
 
@@ -36,34 +61,117 @@ public class HotelierServerUserManager {
         return instance;
     }
 
-    // Lista contenente tutti gli utenti registrati nel sistema
+    // Iterazioni di PBKDF2 se non specificate nella config
+    private static final int DEFAULT_PASSWORD_HASH_ITERATIONS = 210000;
+    // Validità dei token di sessione se non specificata nella config (secondi)
+    private static final int DEFAULT_SESSION_TOKEN_TTL_SECONDS = 3600;
+    // Lunghezza dei token di sessione (byte casuali)
+    private static final int SESSION_TOKEN_BYTES = 32;
+
+    // Lista contenente tutti gli utenti registrati nel sistema, in ordine di registrazione (usata per la persistenza)
     private List<Utente> users;
 
+    // Indice degli utenti per username in minuscolo
+    private final Map<String, Utente> usersByName;
+
+    // Segmento di log attivo in cui vengono accodate le nuove registrazioni (protetto dalla lock su users)
+    private FileChannel userLog;
+
+    // Sbloccato al termine del caricamento degli utenti da disco
+    private final CountDownLatch loaded;
+
+    // Iterazioni di PBKDF2 per l'hash delle password (config del server)
+    private final int passwordHashIterations;
+
+    // Validità dei token di sessione (millisecondi)
+    private final long sessionTokenTtlMs;
+
+    // Token di sessione rilasciati al login, per valore del token
+    private final Map<String, SessionToken> sessionTokens;
+
+    // Generatore dei token di sessione
+    private final SecureRandom tokenRandom;
+
+    /**
+     * Token di sessione rilasciato a un utente autenticato con la password.
+     */
+    private static class SessionToken {
+        // Utente a cui è stato rilasciato il token
+        private final Utente user;
+        // Istante di scadenza del token (millisecondi)
+        private final long expiresAtMs;
+
+        private SessionToken(Utente user, long expiresAtMs) {
+            this.user = user;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
     /**
-     * Costruttore privato della classe, inizializza la lista degli utenti.
+     * Costruttore privato della classe, inizializza la lista e l'indice degli utenti.
      * Viene chiamato solo all'interno della classe per garantire il pattern Singleton.
      */
     private HotelierServerUserManager(){
         users = new ArrayList<>();
+        usersByName = new ConcurrentHashMap<>();
+        loaded = new CountDownLatch(1);
+        var serverConfig = ConfigManager.getServerConfig();
+        passwordHashIterations = serverConfig != null && serverConfig.getPasswordHashIterations() > 0
+                ? serverConfig.getPasswordHashIterations()
+                : DEFAULT_PASSWORD_HASH_ITERATIONS;
+        sessionTokenTtlMs = 1000L * (serverConfig != null && serverConfig.getSessionTokenTtlSeconds() > 0
+                ? serverConfig.getSessionTokenTtlSeconds()
+                : DEFAULT_SESSION_TOKEN_TTL_SECONDS);
+        sessionTokens = new ConcurrentHashMap<>();
+        tokenRandom = new SecureRandom();
+    }
+
+    /**
+     * Attende la fine del caricamento degli utenti da disco.
+     */
+    private void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Normalizza un username per l'uso come chiave dell'indice (confronto case insensitive).
+     *
+     * @param username L'username da normalizzare.
+     * @return L'username in minuscolo.
+     */
+    private static String normalizeUsername(String username) {
+        return username.toLowerCase(Locale.ROOT);
     }
 
     /**
      * Metodo per autenticare un utente, verificando che username e password corrispondano
      * a quelli di un utente esistente.
+     * La password viene confrontata con l'hash memorizzato; se l'hash è stato calcolato con un numero di iterazioni
+     * diverso da quello configurato, viene ricalcolato con la password appena verificata.
      *
      * @param username Il nome utente da autenticare.
      * @param password La password da verificare.
      * @return L'oggetto Utente se l'autenticazione è riuscita, null altrimenti.
      */
     public Utente Authentication(String username, String password){
-        synchronized (users){
-            for(Utente user: users){
-                // Confronta username e password (case insensitive)
-                if(StringUtils.equalsIgnoreCase(username, user.getUsername()) &&
-                        StringUtils.equalsIgnoreCase(password, user.getPassword())){
-                    return user;
-                }
+        if(username == null){
+            return null;
+        }
+        awaitLoaded();
+        // Accesso diretto all'indice per username
+        Utente user = usersByName.get(normalizeUsername(username));
+        // Verifica la password rispetto all'hash memorizzato
+        if(user != null && HotelierServerPasswordHasher.verify(password, user.getPassword())){
+            // Aggiorna l'hash al fattore di lavoro configurato
+            if(HotelierServerPasswordHasher.needsRehash(user.getPassword(), passwordHashIterations)){
+                user.setPassword(HotelierServerPasswordHasher.hash(password, passwordHashIterations));
+                HotelierServerPersistenceService.getInstance().markUsersDirty();
             }
+            return user;
         }
         // Restituisce null se l'autenticazione non ha avuto successo
         return null;
@@ -88,21 +196,25 @@ public class HotelierServerUserManager {
             return "Errore Caratteri: Spazi vuoti non permessi in Username e Password";
         }
 
-        synchronized (users){
-            // Verifica se l'utente esiste già nel sistema
-            for(Utente user : users){
-                if (StringUtils.equalsIgnoreCase(username, user.getUsername())){
-                    return "Errore Registrazione: Utente già presente";
-                }
-            }
+        awaitLoaded();
+        // Evita il calcolo dell'hash se lo username è già registrato
+        if(usersByName.containsKey(normalizeUsername(username))){
+            return "Errore Registrazione: Utente già presente";
+        }
+        // Crea un nuovo oggetto Utente, con l'hash della password, e lo inserisce nell'indice solo se lo username
+        // è libero (operazione atomica)
+        Utente user = new Utente(username, HotelierServerPasswordHasher.hash(password, passwordHashIterations));
+        if(usersByName.putIfAbsent(normalizeUsername(username), user) != null){
+            return "Errore Registrazione: Utente già presente";
+        }
 
-            // Crea un nuovo oggetto Utente e lo aggiunge alla lista
-            Utente user = new Utente(username, password);
+        // Aggiunge l'utente alla lista e lo accoda al log delle registrazioni
+        synchronized (users){
             users.add(user);
+            appendToLog(user);
         }
-
-        // Serializza la lista degli utenti dopo aver aggiunto un nuovo utente
-        serialize();
+        // Segnala il log delle registrazioni per la sincronizzazione su disco
+        HotelierServerPersistenceService.getInstance().markUserLogDirty();
 
         return "Nuovo Utente : " + username + " è stato registrato con successo";
     }
@@ -115,52 +227,236 @@ public class HotelierServerUserManager {
      * @return L'oggetto Utente corrispondente al nome utente, oppure null se non trovato.
      */
     public Utente getUserByName(String username){
+        if(username == null){
+            return null;
+        }
+        awaitLoaded();
+        // Accesso diretto all'indice per username
+        return usersByName.get(normalizeUsername(username));
+    }
+
+    /**
+     * Rilascia un nuovo token di sessione per un utente appena autenticato con la password.
+     * I token scaduti vengono rimossi a ogni rilascio.
+     *
+     * @param user L'utente autenticato.
+     * @return Il token di sessione.
+     */
+    public String issueSessionToken(Utente user){
+        long now = System.currentTimeMillis();
+        sessionTokens.values().removeIf(sessionToken -> sessionToken.expiresAtMs <= now);
+
+        byte[] bytes = new byte[SESSION_TOKEN_BYTES];
+        tokenRandom.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessionTokens.put(token, new SessionToken(user, now + sessionTokenTtlMs));
+        return token;
+    }
+
+    /**
+     * Autentica un utente tramite un token di sessione rilasciato in precedenza, senza verificare la password.
+     *
+     * @param username Il nome utente da autenticare.
+     * @param token Il token di sessione presentato dal client.
+     * @return L'oggetto Utente se il token è valido e appartiene all'utente, null altrimenti.
+     */
+    public Utente authenticateSessionToken(String username, String token){
+        if(username == null || token == null){
+            return null;
+        }
+        SessionToken sessionToken = sessionTokens.get(token);
+        if(sessionToken == null){
+            return null;
+        }
+        if(sessionToken.expiresAtMs <= System.currentTimeMillis()){
+            sessionTokens.remove(token, sessionToken);
+            return null;
+        }
+        if(!StringUtils.equalsIgnoreCase(username, sessionToken.user.getUsername())){
+            return null;
+        }
+        return sessionToken.user;
+    }
+
+    /**
+     * Revoca un token di sessione (logout esplicito dell'utente).
+     *
+     * @param token Il token da revocare (ignorato se null).
+     */
+    public void revokeSessionToken(String token){
+        if(token != null){
+            sessionTokens.remove(token);
+        }
+    }
+
+    /**
+     * Scrive un utente appena registrato in coda al log delle registrazioni, come riga JSON.
+     * Va invocato tenendo la lock sulla lista degli utenti.
+     * In caso di errore l'utente resta in memoria e verrà salvato con il prossimo snapshot degli utenti.
+     *
+     * @param user L'utente da scrivere.
+     */
+    private void appendToLog(Utente user){
+        try{
+            if(userLog == null){
+                throw new IOException("Log delle registrazioni non aperto");
+            }
+            var buffer = ByteBuffer.wrap((JsonUtils.serializeCompact(user) + "\n").getBytes(StandardCharsets.UTF_8));
+            while(buffer.hasRemaining()){
+                userLog.write(buffer);
+            }
+        } catch (IOException e){
+            e.printStackTrace();
+            HotelierServerPersistenceService.getInstance().markUsersDirty();
+        }
+    }
+
+    /**
+     * Rende persistenti su disco (fsync) le registrazioni scritte nel log dall'ultima chiamata.
+     * Viene invocato dal servizio di persistenza, così che più registrazioni condividano un'unica fsync.
+     */
+    public void syncLog(){
+        awaitLoaded();
+        FileChannel log;
         synchronized (users){
-            // Cerca l'utente nella lista confrontando il nome utente
-            for(Utente user : users){
-                if(StringUtils.equalsIgnoreCase(username, user.getUsername())){
-                    return user;
-                }
+            log = userLog;
+        }
+        try{
+            if(log != null){
+                log.force(false);
             }
+        } catch (IOException e){
+            e.printStackTrace();
         }
-        // Restituisce null se l'utente non viene trovato
-        return null;
+    }
+
+    /**
+     * Apre (creandolo se necessario) il segmento di log attivo in modalità append.
+     * Va invocato tenendo la lock sulla lista degli utenti.
+     *
+     * @throws IOException Se il file non può essere aperto.
+     */
+    private void openLog() throws IOException {
+        userLog = FileChannel.open(Path.of(USERS_LOG_PATH), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
     }
 
     /**
      * Metodo per serializzare la lista degli utenti in formato JSON e salvarla su disco.
+     * Sotto lock il log delle registrazioni viene chiuso e rinominato come segmento in compattazione e viene aperto
+     * un nuovo log; lo snapshot, che contiene anche gli utenti del segmento, viene poi scritto senza tenere la lock
+     * e infine il segmento viene cancellato.
      * In caso di errore durante la scrittura, viene stampato lo stack trace.
      */
     public void serialize(){
+        awaitLoaded();
         try{
+            List<Utente> snapshot;
             synchronized (users){
-                // Converte la lista degli utenti in una stringa JSON
-                String jsonUser = JsonUtils.serialize(users);
-                // Scrive la stringa JSON su disco nel file di persistenza
-                JsonUtils.writeFile(jsonUser, new File(USERS_PATH_JSON));
+                if(userLog != null){
+                    userLog.force(false);
+                    userLog.close();
+                    userLog = null;
+                }
+                var activeSegment = Path.of(USERS_LOG_PATH);
+                var compactingSegment = Path.of(USERS_COMPACTING_LOG_PATH);
+                if(Files.exists(activeSegment)){
+                    if(Files.exists(compactingSegment)){
+                        Files.write(compactingSegment, Files.readAllBytes(activeSegment), StandardOpenOption.APPEND);
+                        Files.delete(activeSegment);
+                    } else {
+                        Files.move(activeSegment, compactingSegment, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                openLog();
+                snapshot = new ArrayList<>(users);
             }
+            // Serializza la lista degli utenti in JSON direttamente nel file di persistenza, sostituendolo atomicamente
+            JsonUtils.writeJsonFile(snapshot, new File(USERS_PATH_JSON));
+            Files.deleteIfExists(Path.of(USERS_COMPACTING_LOG_PATH));
         } catch (IOException e){
             e.printStackTrace();
         }
     }
 
     /**
-     * Metodo per deserializzare la lista degli utenti da un file JSON e aggiungerla alla lista degli utenti.
+     * Aggiunge un utente letto da disco alla lista e all'indice, se lo username non è già presente.
+     * Va invocato tenendo la lock sulla lista degli utenti.
+     *
+     * @param user L'utente da aggiungere.
+     */
+    private void addLoadedUser(Utente user){
+        if(user.getUsername() != null && usersByName.putIfAbsent(normalizeUsername(user.getUsername()), user) == null){
+            users.add(user);
+        }
+    }
+
+    /**
+     * Rilegge un segmento del log delle registrazioni, aggiungendo gli utenti non presenti nello snapshot.
+     * La lettura si interrompe alla prima riga non valida (ad esempio una scrittura interrotta da un crash).
+     * Va invocato tenendo la lock sulla lista degli utenti.
+     *
+     * @param segment Il segmento da rileggere.
+     * @throws IOException Se si verifica un errore di lettura.
+     */
+    private void replaySegment(Path segment) throws IOException {
+        if(!Files.exists(segment)){
+            return;
+        }
+        try (var reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)){
+            String line;
+            while((line = reader.readLine()) != null){
+                try{
+                    addLoadedUser(JsonUtils.deserialize(line, Utente.class));
+                } catch (IOException e){
+                    System.out.println("[WARN] Record non valido nel log delle registrazioni " + segment + ", rilettura interrotta");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Metodo per deserializzare la lista degli utenti da un file JSON e aggiungerla alla lista degli utenti,
+     * riapplicando poi le registrazioni del log successive all'ultimo snapshot.
+     * Se sono presenti segmenti di log, al termine viene scritto un nuovo snapshot che li sostituisce.
      * Se si verifica un errore durante la lettura o deserializzazione, viene stampato lo stack trace.
+     * Al termine (anche in caso di errore) vengono sbloccati i metodi in attesa del caricamento.
      */
     public void deserialize(){
+        boolean hasSegments = false;
+        boolean migrated = false;
         try{
             synchronized (users){
                 // Legge il file JSON che contiene gli utenti
                 var userFile = new File(USERS_PATH_JSON);
-                var userJson = JsonUtils.readFile(userFile);
-                // Converte il JSON in una lista di oggetti Utente
-                var deserializedUsers = Arrays.asList(JsonUtils.deserialize(userJson, Utente[].class));
-                // Aggiunge gli utenti deserializzati alla lista principale
-                users.addAll(deserializedUsers);
+                // Legge in streaming gli utenti del file e li aggiunge alla lista principale e all'indice
+                JsonUtils.readJsonArrayFile(userFile, Utente.class, this::addLoadedUser);
+
+                // Riapplica le registrazioni scritte nel log dopo l'ultimo snapshot
+                replaySegment(Path.of(USERS_COMPACTING_LOG_PATH));
+                replaySegment(Path.of(USERS_LOG_PATH));
+                hasSegments = Files.exists(Path.of(USERS_COMPACTING_LOG_PATH)) || Files.exists(Path.of(USERS_LOG_PATH));
+                if(!hasSegments){
+                    openLog();
+                }
+
+                // Sostituisce le password in chiaro salvate da versioni precedenti del server con il loro hash
+                for(Utente user : users){
+                    if(!HotelierServerPasswordHasher.isHashed(user.getPassword())){
+                        user.setPassword(HotelierServerPasswordHasher.hash(user.getPassword(), passwordHashIterations));
+                        migrated = true;
+                    }
+                }
             }
         } catch (IOException e){
             e.printStackTrace();
+        } finally {
+            loaded.countDown();
+        }
+        // I segmenti riletti e le password convertite vengono salvati subito in un nuovo snapshot
+        if(hasSegments || migrated){
+            serialize();
         }
     }
 }
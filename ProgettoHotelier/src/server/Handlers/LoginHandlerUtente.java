@@ -1,28 +1,62 @@
 package server.Handlers;
 
 import model.Utente;
-import org.apache.commons.lang3.StringUtils;
+import server.config.ConfigManager;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.net.SocketAddress;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * La classe LoginHandlerUtente gestisce la gestione degli utenti loggati nel sistema.
- * Essa tiene traccia degli utenti che hanno effettuato l'accesso e fornisce i metodi per aggiungere, verificare
- * e rimuovere gli utenti dalla lista degli utenti loggati. La classe è implementata utilizzando il pattern Singleton
+ * Essa tiene traccia delle sessioni degli utenti che hanno effettuato l'accesso e fornisce i metodi per aprire,
+ * verificare e chiudere le sessioni. La classe è implementata utilizzando il pattern Singleton
  * per garantire che esista una sola istanza della gestione degli utenti loggati.
+ * Le sessioni sono indicizzate per username in minuscolo in una ConcurrentHashMap, per cui tutte le operazioni
+ * richiedono tempo costante e non acquisiscono lock globali. Ogni sessione mantiene l'indirizzo del client,
+ * l'istante del login e quello dell'ultima attività: un timer rimuove periodicamente le sessioni inattive da più
+ * di sessionIdleTimeoutSeconds secondi (config del server).
  */
 public class LoginHandlerUtente {
 
+    // Timeout di inattività delle sessioni se la config non è disponibile o non lo specifica (secondi)
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 1800;
+    // Valore della config che disattiva esplicitamente la scadenza delle sessioni per inattività
+    private static final int NO_IDLE_TIMEOUT = -1;
+    // Intervallo massimo tra due controlli delle sessioni scadute (millisecondi)
+    private static final long MAX_EXPIRY_CHECK_INTERVAL_MS = 60_000;
+
     // Variabile statica che tiene traccia dell'istanza unica della classe (Singleton)
     private static LoginHandlerUtente istanza = null;
 
     /**
      * Costruttore privato della classe per evitare istanze multiple (Singleton).
-     * Inizializza la lista degli utenti loggati come una nuova ArrayList.
+     * Inizializza la mappa delle sessioni e, se è configurato un timeout di inattività, avvia il timer
+     * che rimuove le sessioni scadute.
      */
     private LoginHandlerUtente() {
-        utentiLoggati = new ArrayList<>();
+        sessioni = new ConcurrentHashMap<>();
+        var serverConfig = ConfigManager.getServerConfig();
+        int configuredTimeout = serverConfig != null ? serverConfig.getSessionIdleTimeoutSeconds() : 0;
+        // Una chiave assente nella config vale 0 e usa il valore predefinito: solo -1 disattiva la scadenza
+        int idleTimeoutSeconds = configuredTimeout > 0 ? configuredTimeout
+                : configuredTimeout == NO_IDLE_TIMEOUT ? 0
+                : DEFAULT_IDLE_TIMEOUT_SECONDS;
+        idleTimeoutMs = idleTimeoutSeconds * 1000L;
+
+        if (idleTimeoutMs > 0) {
+            long checkInterval = Math.max(1000, Math.min(MAX_EXPIRY_CHECK_INTERVAL_MS, idleTimeoutMs / 4));
+            ScheduledExecutorService expiryTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "HotelierSessionExpiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+            expiryTimer.scheduleWithFixedDelay(this::expireIdleSessions, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
@@ -31,51 +65,139 @@ public class LoginHandlerUtente {
      *
      * @return L'istanza unica di LoginHandlerUtente.
      */
-    public static LoginHandlerUtente getInstance() {
+    public static synchronized LoginHandlerUtente getInstance() {
         if (istanza == null) {
             istanza = new LoginHandlerUtente();
         }
         return istanza;
     }
 
-    // Lista che tiene traccia degli utenti attualmente loggati
-    private List<Utente> utentiLoggati;
+    // Sessioni attive, per username in minuscolo
+    private final Map<String, Sessione> sessioni;
+
+    // Inattività dopo cui una sessione scade (millisecondi, 0 = nessuna scadenza)
+    private final long idleTimeoutMs;
+
+    /**
+     * Sessione di login di un utente: l'utente, l'indirizzo del client da cui ha effettuato il login,
+     * l'istante del login e quello dell'ultima richiesta ricevuta.
+     */
+    public static class Sessione {
+        private final Utente user;
+        private final SocketAddress clientAddress;
+        private final long loginTimeMs;
+        private volatile long lastActivityMs;
+        // true se la sessione è stata chiusa per inattività
+        private volatile boolean expired;
+
+        private Sessione(Utente user, SocketAddress clientAddress) {
+            this.user = user;
+            this.clientAddress = clientAddress;
+            loginTimeMs = System.currentTimeMillis();
+            lastActivityMs = loginTimeMs;
+        }
+
+        public Utente getUser() {
+            return user;
+        }
+
+        public SocketAddress getClientAddress() {
+            return clientAddress;
+        }
+
+        public long getLoginTimeMs() {
+            return loginTimeMs;
+        }
+
+        public long getLastActivityMs() {
+            return lastActivityMs;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+    }
 
     /**
-     * Aggiunge un utente alla lista degli utenti loggati.
-     * Questo metodo è sincronizzato per evitare condizioni di race in ambienti multithreading.
+     * Normalizza uno username per l'uso come chiave della mappa delle sessioni.
      *
-     * @param user L'utente da aggiungere alla lista degli utenti loggati.
+     * @param username Lo username da normalizzare.
+     * @return Lo username in minuscolo.
      */
-    public synchronized void addLoggedUser(Utente user) {
-        utentiLoggati.add(user);
+    private static String normalizeUsername(String username) {
+        return username.toLowerCase(Locale.ROOT);
     }
 
     /**
-     * Verifica se un utente è già loggato.
-     * Il controllo viene effettuato confrontando lo username dell'utente passato con quelli presenti nella lista.
+     * Apre una sessione per un utente, se non ne ha già una attiva.
+     * Verifica e inserimento avvengono in un'unica operazione atomica.
+     *
+     * @param user L'utente che ha effettuato il login.
+     * @param clientAddress L'indirizzo del client da cui è stato effettuato il login.
+     * @return La nuova sessione, oppure null se l'utente ha già una sessione attiva.
+     */
+    public Sessione addLoggedUser(Utente user, SocketAddress clientAddress) {
+        Sessione sessione = new Sessione(user, clientAddress);
+        if (sessioni.putIfAbsent(normalizeUsername(user.getUsername()), sessione) != null) {
+            return null;
+        }
+        return sessione;
+    }
+
+    /**
+     * Verifica se un utente ha una sessione attiva.
      *
      * @param user L'utente da verificare.
      * @return true se l'utente è loggato, false altrimenti.
      */
-    public synchronized boolean userIsLogged(Utente user) {
+    public boolean userIsLogged(Utente user) {
+        return sessioni.containsKey(normalizeUsername(user.getUsername()));
+    }
 
-        for (Utente utentiLoggati : utentiLoggati) {
-            // Confronta lo username dell'utente passato con quelli degli utenti loggati
-            if (StringUtils.equalsIgnoreCase(utentiLoggati.getUsername(), user.getUsername())) {
-                return true;
-            }
+    /**
+     * Registra l'attività di una sessione (richiesta ricevuta dal client).
+     *
+     * @param sessione La sessione del client.
+     * @return true se la sessione è ancora attiva, false se è scaduta per inattività.
+     */
+    public boolean touch(Sessione sessione) {
+        if (sessione.expired) {
+            return false;
         }
-        return false;
+        sessione.lastActivityMs = System.currentTimeMillis();
+        return true;
     }
 
     /**
-     * Rimuove un utente dalla lista degli utenti loggati.
-     * Questo metodo è sincronizzato per evitare accessi concorrenti sulla lista.
+     * Chiude una sessione. Viene rimossa solo se è ancora la sessione attiva del suo utente.
      *
-     * @param user L'utente da rimuovere dalla lista degli utenti loggati.
+     * @param sessione La sessione da chiudere.
      */
-    public synchronized void removeUser(Utente user) {
-        utentiLoggati.remove(user);
+    public void removeUser(Sessione sessione) {
+        sessioni.remove(normalizeUsername(sessione.user.getUsername()), sessione);
+    }
+
+    /**
+     * Restituisce il numero di sessioni attive.
+     *
+     * @return Il numero di sessioni attive.
+     */
+    public int getSessionCount() {
+        return sessioni.size();
+    }
+
+    /**
+     * Rimuove le sessioni inattive da più del timeout configurato (eseguito periodicamente dal timer).
+     * Il client di una sessione scaduta dovrà effettuare nuovamente il login.
+     */
+    private void expireIdleSessions() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMs;
+        sessioni.values().removeIf(sessione -> {
+            if (sessione.lastActivityMs < deadline) {
+                sessione.expired = true;
+                return true;
+            }
+            return false;
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package server.Handlers;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * La classe PooledBufferOutputStream è un OutputStream che scrive direttamente in un ByteBuffer ottenuto
+ * da HotelierServerBufferPool. Quando il buffer corrente si riempie, ne viene richiesto uno della classe
+ * di dimensione successiva e il buffer precedente viene restituito al pool.
+ * Viene usato per serializzare le risposte con Jackson senza passare da un array di byte intermedio.
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+    // Pool da cui ottenere (e a cui restituire) i buffer
+    private final HotelierServerBufferPool bufferPool;
+    // Buffer in cui vengono scritti i dati
+    private ByteBuffer buffer;
+
+    /**
+     * Costruttore della classe.
+     *
+     * @param bufferPool Il pool da cui ottenere i buffer.
+     * @param initialSize La capacità iniziale richiesta.
+     */
+    public PooledBufferOutputStream(HotelierServerBufferPool bufferPool, int initialSize) {
+        this.bufferPool = bufferPool;
+        buffer = bufferPool.acquire(initialSize);
+        buffer.limit(buffer.capacity());
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Restituisce il buffer contenente i dati scritti finora; la posizione corrisponde al numero di byte scritti.
+     * Da questo momento il chiamante è responsabile del rilascio del buffer al pool.
+     *
+     * @return Il buffer con i dati scritti.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Garantisce che nel buffer ci sia spazio per almeno needed byte, sostituendolo con uno più grande se necessario.
+     *
+     * @param needed Il numero di byte da scrivere.
+     */
+    private void ensureCapacity(int needed) {
+        if (buffer.remaining() >= needed) {
+            return;
+        }
+        int required = buffer.position() + needed;
+        ByteBuffer larger = bufferPool.acquire(Math.max(required, buffer.capacity() * 2));
+        larger.limit(larger.capacity());
+        buffer.flip();
+        larger.put(buffer);
+        bufferPool.release(buffer);
+        buffer = larger;
+    }
+}
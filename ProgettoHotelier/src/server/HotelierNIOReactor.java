@@ -0,0 +1,326 @@
+package server;
+
+import Response_Request_netPackets.Request_ResponseMessage;
+import server.Handlers.HotelierServerConnectionClientHandler;
+import server.config.ConfigManager;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe HotelierNIOReactor rappresenta un reactor NIO: un thread che possiede un proprio Selector e gestisce
+ * le operazioni di lettura e scrittura di tutte le connessioni client che gli sono state assegnate.
+ * Le nuove connessioni vengono consegnate dal thread acceptor tramite una coda concorrente e registrate
+ * sul selector dal thread del reactor stesso, evitando contese sul selector.
+ * Se costruito con un ServerSocketChannel, il reactor gestisce anche l'accettazione delle connessioni
+ * (modalità a singolo selector).
+ * Il reactor chiude le connessioni senza attività da più di connectionIdleTimeoutSeconds secondi e quelle che non
+ * completano un pacchetto iniziato entro readTimeoutSeconds secondi (config del server). Le scadenze sono tenute
+ * in una timing wheel (HotelierNIOTimingWheel) posseduta dal reactor: l'attività di una connessione non sposta la
+ * sua voce nella ruota, ma alla scadenza della voce viene ricalcolato il limite effettivo e, se la connessione è
+ * stata attiva nel frattempo, la voce viene reinserita con il nuovo limite.
+ */
+public class HotelierNIOReactor implements Runnable {
+
+    // Selector posseduto dal reactor, utilizzato solo dal thread del reactor
+    private final Selector selector;
+    // Thread pool condiviso per l'elaborazione dei pacchetti ricevuti
+    private final ExecutorService threadpool;
+    // Canale del server per accettare le connessioni (null se le connessioni arrivano da un acceptor esterno)
+    private final ServerSocketChannel acceptChannel;
+    // Coda delle connessioni consegnate dall'acceptor e non ancora registrate sul selector
+    private final Queue<SocketChannel> pendingClients;
+    // Numero di connessioni attualmente gestite dal reactor (usato per il bilanciamento del carico)
+    private final AtomicInteger connectionCount;
+    // Timeout di inattività e di lettura delle connessioni (millisecondi, 0 = nessun limite)
+    private final long idleTimeoutMs;
+    private final long readTimeoutMs;
+    // Scadenze dei timeout delle connessioni (null se entrambi i timeout sono disabilitati)
+    private final HotelierNIOTimingWheel<ConnectionTimeout> timeouts;
+
+    // Durata di un tick della timing wheel (millisecondi) e numero dei suoi slot
+    private static final long TIMEOUT_TICK_MS = 1000;
+    private static final int TIMEOUT_SLOTS = 512;
+
+    /**
+     * Voce della timing wheel: il controllo del timeout di inattività di una connessione, oppure del timeout di
+     * lettura del pacchetto che sta ricevendo.
+     */
+    private static class ConnectionTimeout {
+        private final SelectionKey key;
+        private final boolean readTimeout;
+
+        private ConnectionTimeout(SelectionKey key, boolean readTimeout) {
+            this.key = key;
+            this.readTimeout = readTimeout;
+        }
+    }
+
+    /**
+     * Costruttore della classe HotelierNIOReactor.
+     *
+     * @param threadpool Il thread pool su cui elaborare i pacchetti ricevuti.
+     * @param acceptChannel Il canale del server da cui accettare le connessioni, oppure null se le connessioni
+     *                      vengono consegnate tramite {@link #register(SocketChannel)}.
+     * @throws IOException Se non è possibile aprire il selector o registrare il canale del server.
+     */
+    public HotelierNIOReactor(ExecutorService threadpool, ServerSocketChannel acceptChannel) throws IOException {
+        this.threadpool = threadpool;
+        this.acceptChannel = acceptChannel;
+        selector = Selector.open();
+        pendingClients = new ConcurrentLinkedQueue<>();
+        connectionCount = new AtomicInteger(0);
+
+        // Timeout delle connessioni letti dalla config del server
+        var serverConfig = ConfigManager.getServerConfig();
+        idleTimeoutMs = serverConfig != null ? Math.max(0, serverConfig.getConnectionIdleTimeoutSeconds()) * 1000L : 0;
+        readTimeoutMs = serverConfig != null ? Math.max(0, serverConfig.getReadTimeoutSeconds()) * 1000L : 0;
+        timeouts = idleTimeoutMs > 0 || readTimeoutMs > 0
+                ? new HotelierNIOTimingWheel<>(TIMEOUT_TICK_MS, TIMEOUT_SLOTS, System.currentTimeMillis())
+                : null;
+
+        // In modalità a singolo selector il reactor si occupa anche delle accept
+        if (acceptChannel != null) {
+            acceptChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * Consegna al reactor una nuova connessione accettata dall'acceptor.
+     * La registrazione sul selector avviene nel thread del reactor, che viene risvegliato con wakeup().
+     *
+     * @param client Il canale del client appena accettato.
+     */
+    public void register(SocketChannel client) {
+        connectionCount.incrementAndGet();
+        pendingClients.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Restituisce il numero di connessioni attualmente gestite dal reactor.
+     *
+     * @return Il numero di connessioni attive.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Ciclo principale del reactor: registra le connessioni in attesa e gestisce gli eventi di I/O pronti.
+     */
+    @Override
+    public void run() {
+        try {
+            // Ciclo principale del reactor che continua finché il thread non viene interrotto
+            while (!Thread.interrupted()) {
+                // Seleziona i canali pronti per operazioni I/O (al più per un tick, per controllare i timeout)
+                if (timeouts != null) {
+                    selector.select(timeouts.getTickMs());
+                } else {
+                    selector.select();
+                }
+                // Registra le connessioni consegnate dall'acceptor dopo l'ultima select
+                registerPendingClients();
+
+                Set<SelectionKey> keys = selector.selectedKeys();
+                Iterator<SelectionKey> iter = keys.iterator();
+
+                // Itera attraverso le chiavi selezionate (canali pronti)
+                while (iter.hasNext()) {
+                    SelectionKey keySelected = iter.next();
+                    // Rimuove la chiave dalla lista delle chiavi selezionate
+                    iter.remove();
+
+                    // Gestisce le connessioni in ingresso (solo in modalità a singolo selector)
+                    if (keySelected.isValid() && keySelected.isAcceptable()) {
+                        acceptClient();
+                        continue;
+                    }
+
+                    try {
+                        handleClientKey(keySelected);
+                    } catch (IOException | RuntimeException | Error e) {
+                        // Un errore nella gestione di un client chiude solo quel client, non il reactor
+                        e.printStackTrace();
+                        closeFailedClient(keySelected);
+                    }
+                }
+
+                // Chiude le connessioni i cui timeout sono scaduti
+                if (timeouts != null) {
+                    timeouts.advance(System.currentTimeMillis(), this::checkTimeout);
+                }
+            }
+        } catch (IOException e) {
+            // Gestisce eventuali eccezioni durante la selezione (gli errori dei singoli client sono gestiti nel ciclo)
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Accetta una connessione in ingresso e la registra sul selector (solo in modalità a singolo selector).
+     * Un errore nell'accettazione riguarda solo la connessione in ingresso e non interrompe il reactor.
+     */
+    private void acceptClient() {
+        SocketChannel client = null;
+        try {
+            client = acceptChannel.accept();
+            if (client != null) {
+                connectionCount.incrementAndGet();
+                client.configureBlocking(false);
+                registerClient(client);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (client != null) {
+                connectionCount.decrementAndGet();
+                try {
+                    client.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registra sul selector tutte le connessioni presenti nella coda delle connessioni in attesa.
+     */
+    private void registerPendingClients() {
+        SocketChannel client;
+        while ((client = pendingClients.poll()) != null) {
+            try {
+                registerClient(client);
+            } catch (IOException e) {
+                // Il client si è disconnesso prima della registrazione
+                connectionCount.decrementAndGet();
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Registra un canale client sul selector del reactor e vi associa il relativo handler.
+     *
+     * @param client Il canale del client da registrare.
+     * @throws IOException Se la registrazione fallisce.
+     */
+    private void registerClient(SocketChannel client) throws IOException {
+        // Registra il canale del client solo per la lettura: la scrittura viene abilitata dall'handler
+        // quando una risposta viene accodata, così le connessioni inattive non risvegliano il selector
+        SelectionKey keyOfClient = client.register(selector, SelectionKey.OP_READ);
+        // Associa un handler (gestore della connessione) al canale del client
+        keyOfClient.attach(HotelierServerConnectionClientHandler.create(client, keyOfClient));
+        // Avvia il controllo del timeout di inattività della connessione
+        if (timeouts != null && idleTimeoutMs > 0) {
+            timeouts.schedule(new ConnectionTimeout(keyOfClient, false), System.currentTimeMillis() + idleTimeoutMs);
+        }
+    }
+
+    /**
+     * Controlla una voce scaduta della timing wheel: se il limite effettivo della connessione è trascorso la chiude,
+     * altrimenti (la connessione è stata attiva) reinserisce il controllo di inattività con il nuovo limite.
+     * Il controllo del timeout di lettura non viene reinserito: il prossimo pacchetto ricevuto in parte ne avvia uno nuovo.
+     *
+     * @param timeout La voce scaduta.
+     */
+    private void checkTimeout(ConnectionTimeout timeout) {
+        // La connessione è già stata chiusa
+        if (!timeout.key.isValid()) {
+            return;
+        }
+        HotelierServerConnectionClientHandler clientHandler = (HotelierServerConnectionClientHandler) timeout.key.attachment();
+        long deadline = clientHandler.getTimeoutDeadlineMs(idleTimeoutMs, readTimeoutMs);
+        if (System.currentTimeMillis() >= deadline) {
+            try {
+                closeClient(timeout.key, clientHandler);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        } else if (!timeout.readTimeout) {
+            timeouts.schedule(timeout, deadline);
+        }
+    }
+
+    /**
+     * Gestisce gli eventi di lettura e scrittura pronti per la chiave di un client.
+     *
+     * @param keySelected La chiave selezionata del client.
+     * @throws IOException Se si verifica un errore durante la chiusura della connessione.
+     */
+    private void handleClientKey(SelectionKey keySelected) throws IOException {
+        // Ottiene il gestore della connessione del client
+        HotelierServerConnectionClientHandler clientHandler = (HotelierServerConnectionClientHandler) keySelected.attachment();
+
+        // Gestisce eventi di lettura dai client
+        if (keySelected.isValid() && keySelected.isReadable()) {
+            // Gestisce la lettura del pacchetto in ingresso dal client
+            Request_ResponseMessage packet = clientHandler.handleRead();
+
+            // Se un pacchetto è stato letto, accodalo per l'elaborazione sul thread pool (in ordine per connessione)
+            if (packet != null) {
+                clientHandler.submitPacket(packet, threadpool);
+            }
+
+            // Se un pacchetto è stato ricevuto solo in parte, avvia il controllo del suo timeout di lettura
+            if (timeouts != null && readTimeoutMs > 0 && clientHandler.armReadTimeout()) {
+                timeouts.schedule(new ConnectionTimeout(keySelected, true),
+                        clientHandler.getTimeoutDeadlineMs(idleTimeoutMs, readTimeoutMs));
+            }
+
+            // Se la connessione del client è stata chiusa, chiudi il canale
+            if (!clientHandler.isConnected()) {
+                closeClient(keySelected, clientHandler);
+            }
+        }
+
+        // Gestisce eventi di scrittura verso i client
+        if (keySelected.isValid() && keySelected.isWritable()) {
+            // Gestisce la scrittura dei dati al client
+            clientHandler.handleWrite();
+            // Se la connessione del client è stata chiusa, chiudi il canale
+            if (!clientHandler.isConnected()) {
+                closeClient(keySelected, clientHandler);
+            }
+        }
+    }
+
+    /**
+     * Chiude la connessione di un client la cui gestione ha generato un errore, se non è già stata chiusa.
+     *
+     * @param keySelected La chiave del client da chiudere.
+     */
+    private void closeFailedClient(SelectionKey keySelected) {
+        if (!keySelected.isValid()) {
+            return;  // Connessione già chiusa
+        }
+        try {
+            closeClient(keySelected, (HotelierServerConnectionClientHandler) keySelected.attachment());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Chiude la connessione di un client e la rimuove dal selector del reactor.
+     *
+     * @param keySelected La chiave del client da chiudere.
+     * @param clientHandler L'handler associato al client.
+     * @throws IOException Se si verifica un errore durante la chiusura del canale.
+     */
+    private void closeClient(SelectionKey keySelected, HotelierServerConnectionClientHandler clientHandler) throws IOException {
+        keySelected.cancel(); // Cancella la chiave dal selector
+        connectionCount.decrementAndGet();
+        clientHandler.close();
+    }
+}
@@ -1,16 +1,10 @@
 package server;
 
-import Response_Request_netPackets.Request_ResponseMessage;
-import server.Handlers.HotelierServerConnectionClientHandler;
-
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -19,21 +13,36 @@ import java.util.concurrent.Executors;
  * i canali e i selettori di Java NIO per gestire le connessioni client in modo non bloccante e altamente concorrente.
  * Questo server è progettato per gestire molteplici connessioni simultanee senza creare un thread per ogni client,
  * utilizzando il modello di selezione (selector pattern).
+ *
+ * Il server può operare in due modalità, in base al numero di reactor configurato:
+ * • reactorThreads = 0: un unico thread con un solo Selector gestisce accept, letture e scritture.
+ * • reactorThreads > 0: un thread acceptor accetta le connessioni e le distribuisce tra N reactor,
+ *   ognuno con il proprio Selector, scegliendo il reactor meno carico (a parità di carico, round-robin).
  */
 public class HotelierNIOServerTCP implements Runnable {
+    // Attesa (millisecondi) prima di ritentare una accept fallita, ad esempio per descrittori di file esauriti
+    private static final long ACCEPT_RETRY_DELAY_MS = 100;
+
     private final String serverAddress;
     private final int nioTCPPort;
+    private final int reactorThreads;
     private ExecutorService threadpool;
+    // Reactor a cui vengono distribuite le connessioni (vuoto in modalità a singolo selector)
+    private HotelierNIOReactor[] reactors;
+    // Indice del prossimo reactor da cui partire nella scelta round-robin
+    private int nextReactor;
 
     /**
      * Costruttore della classe HotelierNIOServerTCP.
      *
      * @param serverAddress L'indirizzo IP o il nome host del server.
      * @param nioTCPPort La porta su cui il server ascolterà le connessioni in ingresso.
+     * @param reactorThreads Il numero di reactor tra cui distribuire le connessioni (0 per un singolo selector).
      */
-    public HotelierNIOServerTCP(String serverAddress, int nioTCPPort) {
+    public HotelierNIOServerTCP(String serverAddress, int nioTCPPort, int reactorThreads) {
         this.serverAddress = serverAddress;
         this.nioTCPPort = nioTCPPort;
+        this.reactorThreads = Math.max(0, reactorThreads);
         // Creazione di un thread pool con un numero di thread dinamico
         threadpool = Executors.newCachedThreadPool();
         // Avvio di un nuovo thread per eseguire il server
@@ -51,84 +60,93 @@ public class HotelierNIOServerTCP implements Runnable {
             // Configura l'indirizzo del server su cui il server NIO ascolterà
             InetSocketAddress serverSocketAddress = new InetSocketAddress(serverAddress, nioTCPPort);
 
-            // Apre un ServerSocketChannel per accettare le connessioni in ingresso e lo configura come non-bloccante
+            // Apre un ServerSocketChannel per accettare le connessioni in ingresso
             ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-            serverSocketChannel.configureBlocking(false);
 
             // Associa il ServerSocketChannel all'indirizzo e alla porta specificati
             serverSocketChannel.bind(serverSocketAddress);
 
-            // Crea un selector per monitorare più canali (connessioni)
-            Selector serverSelector = Selector.open();
-            // Registra il canale del server per l'operazione di accettazione delle connessioni in ingresso
-            serverSocketChannel.register(serverSelector, SelectionKey.OP_ACCEPT);
-
-            // Ciclo principale del server che continua finché il thread non viene interrotto
-            while (!Thread.interrupted()) {
-                // Seleziona i canali pronti per operazioni I/O (ad esempio, connessioni in ingresso)
-                serverSelector.select();
-                Set<SelectionKey> keys = serverSelector.selectedKeys();
-                Iterator<SelectionKey> iter = keys.iterator();
-
-                // Itera attraverso le chiavi selezionate (canali pronti)
-                while (iter.hasNext()) {
-                    // Ottiene la chiave selezionata
-                    SelectionKey keySelected = iter.next();
-
-                    // Gestisce le connessioni in ingresso (nuovi client)
-                    if (keySelected.isAcceptable()) {
-                        // Accetta una connessione in ingresso dal ServerSocketChannel
-                        SocketChannel client = serverSocketChannel.accept();
-                        // Configura il canale del client come non-bloccante
-                        client.configureBlocking(false);
-
-                        // Registra il canale del client per le operazioni di lettura e scrittura
-                        SelectionKey keyOfClient = client.register(serverSelector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-                        // Associa un handler (gestore della connessione) al canale del client
-                        keyOfClient.attach(new HotelierServerConnectionClientHandler(client));
-                    }
-
-                    // Gestisce eventi di lettura dai client
-                    if (keySelected.isValid() && keySelected.isReadable()) {
-                        // Ottiene il gestore della connessione del client
-                        HotelierServerConnectionClientHandler clientHandler = (HotelierServerConnectionClientHandler) keySelected.attachment();
-                        // Gestisce la lettura del pacchetto in ingresso dal client
-                        Request_ResponseMessage packet = clientHandler.handleRead();
+            if (reactorThreads == 0) {
+                // Modalità a singolo selector: il reactor esegue accept, letture e scritture sul thread corrente
+                serverSocketChannel.configureBlocking(false);
+                new HotelierNIOReactor(threadpool, serverSocketChannel).run();
+                return;
+            }
 
-                        // Se un pacchetto è stato letto, invialo al thread pool per l'elaborazione
-                        if (packet != null) {
-                            threadpool.submit(() -> {
-                                // Gestisce il pacchetto (elaborazione richiesta)
-                                clientHandler.handlePacket(packet);
-                            });
-                        }
+            // Modalità multi-reactor: avvio i reactor, ognuno sul proprio thread
+            reactors = new HotelierNIOReactor[reactorThreads];
+            for (int i = 0; i < reactorThreads; i++) {
+                reactors[i] = new HotelierNIOReactor(threadpool, null);
+                Thread reactorThread = new Thread(reactors[i], "HotelierNIOReactor-" + i);
+                reactorThread.start();
+            }
 
-                        // Se la connessione del client è stata chiusa, chiudi il canale
-                        if (!clientHandler.isConnected()) {
-                            clientHandler.close();
-                            keySelected.cancel(); // Cancella la chiave dal selector
-                        }
-                    }
+            // Il thread corrente fa da acceptor: accept bloccante e consegna della connessione a un reactor
+            serverSocketChannel.configureBlocking(true);
+            acceptLoop(serverSocketChannel);
+        } catch (IOException e) {
+            // Gestisce eventuali eccezioni durante l'apertura del canale o l'avvio dei reactor
+            e.printStackTrace();
+        }
+    }
 
-                    // Gestisce eventi di scrittura verso i client
-                    if (keySelected.isValid() && keySelected.isWritable()) {
-                        // Ottiene il gestore della connessione del client
-                        HotelierServerConnectionClientHandler clientHandler = (HotelierServerConnectionClientHandler) keySelected.attachment();
-                        // Gestisce la scrittura dei dati al client
-                        clientHandler.handleWrite();
-                        // Se la connessione del client è stata chiusa, chiudi il canale
-                        if (!clientHandler.isConnected()) {
-                            clientHandler.close();
-                            keySelected.cancel(); // Cancella la chiave dal selector
-                        }
-                    }
-                    // Rimuove la chiave dalla lista delle chiavi selezionate
-                    iter.remove();
+    /**
+     * Ciclo dell'acceptor in modalità multi-reactor. Un errore su una singola connessione (accept fallita o
+     * configurazione del canale) viene registrato e non interrompe il ciclo, che termina solo quando il canale
+     * di ascolto viene chiuso o il thread viene interrotto.
+     *
+     * @param serverSocketChannel Il canale di ascolto, in modalità bloccante.
+     */
+    private void acceptLoop(ServerSocketChannel serverSocketChannel) {
+        while (!Thread.interrupted()) {
+            SocketChannel client;
+            try {
+                client = serverSocketChannel.accept();
+            } catch (ClosedChannelException e) {
+                return; // Canale di ascolto chiuso (o thread interrotto durante la accept)
+            } catch (IOException e) {
+                // Accept fallita, ad esempio per descrittori di file esauriti: attende prima di riprovare
+                e.printStackTrace();
+                try {
+                    Thread.sleep(ACCEPT_RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
                 }
+                continue;
+            }
+            try {
+                // Configura il canale del client come non-bloccante e lo consegna a un reactor
+                client.configureBlocking(false);
+                selectReactor().register(client);
+            } catch (IOException | RuntimeException e) {
+                // Connessione accettata ma non utilizzabile (ad esempio chiusa subito dal client): la chiude
+                e.printStackTrace();
+                try {
+                    client.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sceglie il reactor a cui assegnare una nuova connessione: quello con meno connessioni attive,
+     * partendo dal reactor successivo all'ultimo scelto per distribuire in round-robin a parità di carico.
+     *
+     * @return Il reactor a cui assegnare la connessione.
+     */
+    private HotelierNIOReactor selectReactor() {
+        HotelierNIOReactor selected = reactors[nextReactor];
+        int selectedIndex = nextReactor;
+        for (int i = 1; i < reactors.length; i++) {
+            int index = (nextReactor + i) % reactors.length;
+            if (reactors[index].getConnectionCount() < selected.getConnectionCount()) {
+                selected = reactors[index];
+                selectedIndex = index;
             }
-        } catch (IOException e) {
-            // Gestisce eventuali eccezioni durante la selezione o la gestione dei canali
-            e.printStackTrace();
         }
+        nextReactor = (selectedIndex + 1) % reactors.length;
+        return selected;
     }
 }
@@ -0,0 +1,103 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * La classe HotelierNIOTimingWheel implementa una timing wheel con hashing (hashed timing wheel), usata dai
+ * reactor NIO per controllare i timeout delle connessioni senza scandirle tutte a ogni passata.
+ * Il tempo è diviso in tick di durata fissa; un elemento con scadenza al tick T viene inserito nello slot
+ * T % numero di slot. A ogni avanzamento vengono visitati solo gli slot dei tick trascorsi, e di ciascuno vengono
+ * estratti gli elementi scaduti (quelli con scadenza a un giro successivo della ruota restano nello slot).
+ * Inserimento ed estrazione costano quindi O(1) per elemento.
+ * La classe non è thread-safe: viene usata solo dal thread del reactor che la possiede.
+ *
+ * @param <T> Il tipo degli elementi con scadenza.
+ */
+public class HotelierNIOTimingWheel<T> {
+
+    /**
+     * Elemento inserito nella ruota, con il tick della sua scadenza.
+     */
+    private static class Entry<T> {
+        private final T item;
+        private final long deadlineTick;
+
+        private Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    // Durata di un tick (millisecondi)
+    private final long tickMs;
+    // Slot della ruota
+    private final List<List<Entry<T>>> slots;
+    // Ultimo tick già elaborato
+    private long currentTick;
+
+    /**
+     * Costruttore della classe.
+     *
+     * @param tickMs La durata di un tick in millisecondi (risoluzione dei timeout).
+     * @param slotCount Il numero di slot della ruota.
+     * @param nowMs L'istante corrente in millisecondi.
+     */
+    public HotelierNIOTimingWheel(long tickMs, int slotCount, long nowMs) {
+        this.tickMs = tickMs;
+        slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        currentTick = nowMs / tickMs;
+    }
+
+    /**
+     * Restituisce la durata di un tick.
+     *
+     * @return La durata di un tick in millisecondi.
+     */
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * Inserisce un elemento che scade all'istante specificato (arrotondato al tick successivo).
+     *
+     * @param item L'elemento da inserire.
+     * @param deadlineMs L'istante di scadenza in millisecondi.
+     */
+    public void schedule(T item, long deadlineMs) {
+        // Un elemento già scaduto viene estratto al prossimo avanzamento
+        long deadlineTick = Math.max(currentTick + 1, (deadlineMs + tickMs - 1) / tickMs);
+        slots.get((int) (deadlineTick % slots.size())).add(new Entry<>(item, deadlineTick));
+    }
+
+    /**
+     * Avanza la ruota fino all'istante corrente, passando all'azione gli elementi scaduti.
+     * L'azione può reinserire l'elemento con una nuova scadenza.
+     *
+     * @param nowMs L'istante corrente in millisecondi.
+     * @param onExpired L'azione da eseguire per ogni elemento scaduto.
+     */
+    public void advance(long nowMs, Consumer<T> onExpired) {
+        long nowTick = nowMs / tickMs;
+        // Se sono trascorsi più tick degli slot, basta visitare ogni slot una volta
+        long firstTick = Math.max(currentTick + 1, nowTick - slots.size() + 1);
+        List<T> expired = new ArrayList<>();
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            List<Entry<T>> slot = slots.get((int) (tick % slots.size()));
+            slot.removeIf(entry -> {
+                if (entry.deadlineTick <= nowTick) {
+                    expired.add(entry.item);
+                    return true;
+                }
+                return false;
+            });
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        // Le azioni vengono eseguite dopo la visita degli slot, così possono reinserire gli elementi
+        expired.forEach(onExpired);
+    }
+}
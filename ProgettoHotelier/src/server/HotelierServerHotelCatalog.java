@@ -0,0 +1,249 @@
+package server;
+
+import Response_Request_netPackets.messageBinaryCodec;
+import model.Hotel;
+import utils.ByteBufferInputStream;
+import utils.JsonUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * La classe HotelierServerHotelCatalog rappresenta il catalogo binario degli hotel, un file di sola lettura che
+ * all'avvio del server viene mappato in memoria (FileChannel.map) invece di essere deserializzato: l'apertura
+ * legge solo la coda del file, per cui richiede un tempo costante indipendentemente dal numero di hotel.
+ * Gli hotel vengono poi letti dal file singolarmente, quando servono, fino al primo ciclo dell'algoritmo di ranking
+ * che li legge tutti (vedi HotelierServerHotelManager).
+ *
+ * Struttura del file:
+ * • record degli hotel, uno dopo l'altro, nel formato di messageBinaryCodec.writeHotel
+ * • tabella degli offset: per ogni record, l'offset del suo inizio (int)
+ * • tabella degli ID: coppie (ID hotel, indice del record) ordinate per ID, per la ricerca binaria
+ * • tabella delle città: per ogni città, nome (stringa), numero di hotel (int) e indici dei loro record (int)
+ * • coda di lunghezza fissa: offset delle tre tabelle, numero di hotel, numero di città, versione e magic number
+ */
+public class HotelierServerHotelCatalog {
+
+    // Magic number del file ("HTLC")
+    private static final int MAGIC = 0x48544C43;
+    // Versione del formato del file
+    private static final int VERSION = 1;
+    // Dimensione della coda del file (7 int)
+    private static final int TRAILER_SIZE = 7 * Integer.BYTES;
+
+    // Contenuto del file mappato in memoria
+    private final MappedByteBuffer buffer;
+    // Offset delle tabelle all'interno del file
+    private final int recordTableOffset;
+    private final int idTableOffset;
+    private final int cityTableOffset;
+    // Numero di hotel e di città nel catalogo
+    private final int hotelCount;
+    private final int cityCount;
+
+    /**
+     * Costruttore privato della classe, usato da open dopo aver letto la coda del file.
+     */
+    private HotelierServerHotelCatalog(MappedByteBuffer buffer, int recordTableOffset, int idTableOffset,
+                                       int cityTableOffset, int hotelCount, int cityCount) {
+        this.buffer = buffer;
+        this.recordTableOffset = recordTableOffset;
+        this.idTableOffset = idTableOffset;
+        this.cityTableOffset = cityTableOffset;
+        this.hotelCount = hotelCount;
+        this.cityCount = cityCount;
+    }
+
+    /**
+     * Mappa in memoria il catalogo binario e ne legge la coda.
+     *
+     * @param file Il file del catalogo.
+     * @return Il catalogo aperto.
+     * @throws IOException Se il file non può essere letto o non è un catalogo valido.
+     */
+    public static HotelierServerHotelCatalog open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Catalogo hotel non valido: " + file);
+            }
+            // La mappatura resta valida anche dopo la chiusura del canale
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int trailer = (int) size - TRAILER_SIZE;
+            if (buffer.getInt(trailer + 24) != MAGIC || buffer.getInt(trailer + 20) != VERSION) {
+                throw new IOException("Catalogo hotel non valido: " + file);
+            }
+            return new HotelierServerHotelCatalog(buffer, buffer.getInt(trailer), buffer.getInt(trailer + 4),
+                    buffer.getInt(trailer + 8), buffer.getInt(trailer + 12), buffer.getInt(trailer + 16));
+        }
+    }
+
+    /**
+     * Scrive il catalogo binario degli hotel, sostituendo atomicamente il file precedente.
+     *
+     * @param hotels Gli hotel da scrivere, nell'ordine dei record.
+     * @param file Il file del catalogo.
+     * @throws IOException Se si verifica un errore di scrittura.
+     */
+    public static void write(List<Hotel> hotels, File file) throws IOException {
+        JsonUtils.writeFileAtomically(file, outputStream -> {
+            DataOutputStream output = new DataOutputStream(outputStream);
+
+            // Record degli hotel, raggruppati per città mantenendo l'ordine dei record
+            int[] recordOffsets = new int[hotels.size()];
+            Map<String, List<Integer>> cityRecords = new LinkedHashMap<>();
+            Map<String, String> cityNames = new HashMap<>();
+            for (int i = 0; i < hotels.size(); i++) {
+                var hotel = hotels.get(i);
+                recordOffsets[i] = output.size();
+                messageBinaryCodec.writeHotel(output, hotel);
+                String city = hotel.getCity().toLowerCase(Locale.ROOT);
+                cityNames.putIfAbsent(city, hotel.getCity());
+                cityRecords.computeIfAbsent(city, key -> new ArrayList<>()).add(i);
+            }
+
+            // Tabella degli offset dei record
+            int recordTableOffset = output.size();
+            for (int recordOffset : recordOffsets) {
+                output.writeInt(recordOffset);
+            }
+
+            // Tabella degli ID ordinata per la ricerca binaria
+            int idTableOffset = output.size();
+            Integer[] byID = new Integer[hotels.size()];
+            for (int i = 0; i < byID.length; i++) {
+                byID[i] = i;
+            }
+            Arrays.sort(byID, Comparator.comparingInt(record -> hotels.get(record).getId()));
+            for (int record : byID) {
+                output.writeInt(hotels.get(record).getId());
+                output.writeInt(record);
+            }
+
+            // Tabella delle città
+            int cityTableOffset = output.size();
+            for (Map.Entry<String, List<Integer>> entry : cityRecords.entrySet()) {
+                messageBinaryCodec.writeString(output, cityNames.get(entry.getKey()));
+                output.writeInt(entry.getValue().size());
+                for (int record : entry.getValue()) {
+                    output.writeInt(record);
+                }
+            }
+
+            // Coda del file
+            output.writeInt(recordTableOffset);
+            output.writeInt(idTableOffset);
+            output.writeInt(cityTableOffset);
+            output.writeInt(hotels.size());
+            output.writeInt(cityRecords.size());
+            output.writeInt(VERSION);
+            output.writeInt(MAGIC);
+            output.flush();
+        });
+    }
+
+    /**
+     * Restituisce il numero di hotel nel catalogo.
+     *
+     * @return Il numero di hotel.
+     */
+    public int size() {
+        return hotelCount;
+    }
+
+    /**
+     * Cerca (ricerca binaria sulla tabella degli ID) il record dell'hotel con l'ID specificato.
+     *
+     * @param hotelID L'ID dell'hotel.
+     * @return L'indice del record, oppure -1 se l'hotel non è nel catalogo.
+     */
+    public int findRecordByID(int hotelID) {
+        int low = 0;
+        int high = hotelCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = idTableOffset + middle * 2 * Integer.BYTES;
+            int id = buffer.getInt(entry);
+            if (id < hotelID) {
+                low = middle + 1;
+            } else if (id > hotelID) {
+                high = middle - 1;
+            } else {
+                return buffer.getInt(entry + Integer.BYTES);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Restituisce gli indici dei record degli hotel della città specificata.
+     *
+     * @param city Il nome della città (ignorando maiuscole/minuscole).
+     * @return Gli indici dei record, vuoto se la città non è nel catalogo.
+     * @throws IOException Se la tabella delle città non è leggibile.
+     */
+    public int[] findCityRecords(String city) throws IOException {
+        DataInputStream input = inputAt(cityTableOffset);
+        for (int i = 0; i < cityCount; i++) {
+            String name = messageBinaryCodec.readString(input);
+            int count = input.readInt();
+            if (name != null && name.equalsIgnoreCase(city)) {
+                int[] records = new int[count];
+                for (int j = 0; j < count; j++) {
+                    records[j] = input.readInt();
+                }
+                return records;
+            }
+            input.skipBytes(count * Integer.BYTES);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Restituisce i nomi delle città presenti nel catalogo.
+     *
+     * @return La lista delle città.
+     * @throws IOException Se la tabella delle città non è leggibile.
+     */
+    public List<String> getCities() throws IOException {
+        List<String> cities = new ArrayList<>(cityCount);
+        DataInputStream input = inputAt(cityTableOffset);
+        for (int i = 0; i < cityCount; i++) {
+            cities.add(messageBinaryCodec.readString(input));
+            input.skipBytes(input.readInt() * Integer.BYTES);
+        }
+        return cities;
+    }
+
+    /**
+     * Legge dal file l'hotel del record specificato, creando un nuovo oggetto Hotel.
+     *
+     * @param record L'indice del record.
+     * @return L'hotel letto.
+     * @throws IOException Se il record non è leggibile.
+     */
+    public Hotel readHotel(int record) throws IOException {
+        int recordOffset = buffer.getInt(recordTableOffset + record * Integer.BYTES);
+        return messageBinaryCodec.readHotel(inputAt(recordOffset));
+    }
+
+    /**
+     * Crea uno stream di lettura sul file mappato a partire dall'offset specificato.
+     * Ogni chiamata usa una vista indipendente del buffer, per cui le letture possono essere concorrenti.
+     *
+     * @param offset L'offset da cui leggere.
+     * @return Lo stream di lettura.
+     */
+    private DataInputStream inputAt(int offset) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        return new DataInputStream(new ByteBufferInputStream(view));
+    }
+}
@@ -1,21 +1,37 @@
 package server;
 
 import model.Hotel;
-import org.apache.commons.lang3.StringUtils;
+import server.config.ConfigManager;
 import utils.JsonUtils;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static server.config.ServerJsonSettings.HOTELS_CATALOG_PATH;
 import static server.config.ServerJsonSettings.HOTELS_PATH_JSON;
 
 /**
  * La classe HotelierServerHotelManager gestisce gli hotel all'interno di Hotelier.
  * Fornisce metodi per recuperare, aggiornare e gestire informazioni sugli hotel,
- * inclusa la ricerca per ID, nome e città. Utilizza una lista sincronizzata per garantire
- * l'accesso concorrente agli hotel e offre funzionalità per la serializzazione
+ * inclusa la ricerca per ID, nome e città. Le ricerche usano indici concorrenti (per ID, per città e per
+ * coppia città/nome) mantenuti a ogni inserimento, mentre la lista sincronizzata degli hotel viene usata
+ * per le scansioni complete e la persistenza. Offre inoltre funzionalità per la serializzazione
  * e deserializzazione degli hotel tramite JSON per la persistenza su disco.
+ * Se hotelCatalogMapped è abilitato (config del server) gli hotel vengono salvati anche nel catalogo binario
+ * HotelierServerHotelCatalog e all'avvio, invece di deserializzare il JSON, il catalogo viene mappato in memoria:
+ * gli hotel vengono letti dal catalogo solo quando servono (per ID o per città), finché una scansione completa
+ * (getHotels, serialize) non li carica tutti e il catalogo non viene più usato.
+ * Limite: la fase di lettura su richiesta dura solo pochi secondi dopo l'avvio. L'algoritmo di ranking legge gli
+ * hotel di tutte le città all'inizializzazione dei rank locali e tutti gli hotel (getHotels) al primo ciclo, perché
+ * il rank è memorizzato negli oggetti Hotel; la lettura avviene tenendo la lock sulla lista di hotel, che nel
+ * frattempo blocca anche le ricerche degli hotel non ancora letti. Il catalogo riduce quindi il tempo di avvio
+ * (il server risponde appena il file è mappato, senza deserializzare il JSON), non la memoria occupata dagli hotel.
+ * Una volta letti tutti gli hotel, le ricerche non usano più la lock.
+ * L'algoritmo di ranking pubblica per ogni città la lista degli hotel ordinata per rank locale: le ricerche di tutti
+ * gli hotel di una città la restituiscono senza copie né ordinamenti.
  */
 public class HotelierServerHotelManager {
 
@@ -37,12 +53,45 @@ public class HotelierServerHotelManager {
     // Lista degli hotel nel registro
     private List<Hotel> hotels;
 
+    // Indice degli hotel per ID
+    private final Map<Integer, Hotel> hotelsByID;
+
+    // Indice degli hotel per città normalizzata (minuscolo); le liste sono immutabili e vengono sostituite
+    // interamente a ogni modifica, così le letture non richiedono lock né copie
+    private final Map<String, List<Hotel>> hotelsByCity;
+
+    // Indice degli hotel per coppia (città, nome) normalizzata
+    private final Map<String, Hotel> hotelsByCityAndName;
+
+    // ID degli hotel modificati (nuove recensioni) dall'ultimo ciclo dell'algoritmo di ranking
+    private final Set<Integer> dirtyHotels;
+
+    // Catalogo binario mappato da cui leggere gli hotel non ancora caricati, null se tutti gli hotel sono in memoria
+    private volatile HotelierServerHotelCatalog catalog;
+
+    // Hotel già letti dal catalogo, per indice del record (protetto dalla lock sulla lista di hotel)
+    private Hotel[] catalogHotels;
+
+    // Città (normalizzate) i cui hotel sono già stati letti tutti dal catalogo
+    private final Set<String> loadedCities;
+
+    // Liste immutabili degli hotel di ogni città (normalizzata) ordinate per rank locale, pubblicate dal thread di
+    // ranking: la mappa non viene mai modificata, ma sostituita interamente a ogni pubblicazione
+    private final AtomicReference<Map<String, List<Hotel>>> rankedHotelsByCity;
+
     /**
-     * Costruttore della classe. Inizializza la lista di hotel.
+     * Costruttore della classe. Inizializza la lista di hotel e gli indici.
      */
     private HotelierServerHotelManager() {
         // Inizializzo la lista di hotel come un ArrayList
         hotels = new ArrayList<>();
+        // Inizializzo gli indici concorrenti per le ricerche senza lock
+        hotelsByID = new ConcurrentHashMap<>();
+        hotelsByCity = new ConcurrentHashMap<>();
+        hotelsByCityAndName = new ConcurrentHashMap<>();
+        dirtyHotels = ConcurrentHashMap.newKeySet();
+        loadedCities = ConcurrentHashMap.newKeySet();
+        rankedHotelsByCity = new AtomicReference<>(Map.of());
     }
 
     /**
@@ -52,45 +101,66 @@ public class HotelierServerHotelManager {
      * @return L'hotel con l'ID specificato, oppure null se non trovato.
      */
     public Hotel getHotelByID(int hotelID) {
-        // Acquisisco la lock sulla lista di hotel per garantire la sincronizzazione
-        synchronized (hotels) {
-            // Itero la lista di tutti gli hotel nel registro
-            for (var hotel : hotels) {
-                // Controllo se l'ID dell'hotel corrisponde a quello passato
-                if (hotel.getId() == hotelID) {
-                    return hotel; // Restituisco l'hotel trovato
-                }
-            }
+        // Accesso diretto all'indice per ID
+        var hotel = hotelsByID.get(hotelID);
+        if (hotel == null && catalog != null) {
+            // L'hotel potrebbe non essere ancora stato letto dal catalogo
+            hotel = loadHotelFromCatalog(hotelID);
         }
-        return null; // Se non trovato, restituisco null
+        return hotel;
     }
 
     /**
-     * Restituisce una lista di hotel situati nella città specificata.
+     * Restituisce la lista degli hotel situati nella città specificata.
+     * La lista restituita è condivisa e non modificabile: chi deve ordinarla deve prima copiarla.
      *
-     * @param city La città in cui cercare gli hotel.
-     * @return Una lista di hotel nella città specificata.
+     * @param city La città in cui cercare gli hotel (ignorando maiuscole/minuscole).
+     * @return Una lista non modificabile di hotel nella città specificata.
      */
     public List<Hotel> getHotelsByCity(String city) {
-        // Creo una nuova lista per gli hotel nella città
-        List<Hotel> hotelsCity = new ArrayList<>();
-        List<Hotel> copyHotels;
-
-        // Acquisisco la lock sulla lista di hotel per garantire la sincronizzazione
-        synchronized (hotels) {
-            copyHotels = new ArrayList<>(hotels); // Creo una copia della lista di hotel
+        if (city == null) {
+            return Collections.emptyList();
         }
+        // Se necessario legge dal catalogo gli hotel della città
+        loadCityFromCatalog(city);
+        // Accesso diretto all'indice per città normalizzata
+        return hotelsByCity.getOrDefault(normalize(city), Collections.emptyList());
+    }
 
-        // Itero la lista degli hotel
-        for (Hotel hotel : copyHotels) {
-            // Controllo se la città dell'hotel corrisponde a quella passata (ignorando maiuscole/minuscole)
-            if (StringUtils.equalsIgnoreCase(hotel.getCity(), city)) {
-                hotelsCity.add(hotel); // Aggiungo l'hotel alla lista
-            }
+    /**
+     * Restituisce la lista degli hotel della città specificata, ordinata per rank locale.
+     * Se l'algoritmo di ranking ha già pubblicato la città viene restituita direttamente la lista pubblicata,
+     * senza lock, copie né ordinamenti; altrimenti la lista del registro viene copiata e ordinata.
+     *
+     * @param city La città in cui cercare gli hotel (ignorando maiuscole/minuscole).
+     * @return Una lista non modificabile di hotel nella città specificata, ordinata per rank locale.
+     */
+    public List<Hotel> getRankedHotelsByCity(String city) {
+        if (city == null) {
+            return Collections.emptyList();
         }
+        var rankedHotels = rankedHotelsByCity.get().get(normalize(city));
+        if (rankedHotels != null) {
+            return rankedHotels;
+        }
+        // Città non ancora pubblicata dall'algoritmo di ranking
+        var hotels = new ArrayList<>(getHotelsByCity(city));
+        hotels.sort(Comparator.comparingInt(Hotel::getLocalRank));
+        return Collections.unmodifiableList(hotels);
+    }
 
-        // Restituisco la lista degli hotel nella città
-        return hotelsCity;
+    /**
+     * Pubblica le liste ordinate per rank locale degli hotel delle città specificate, sostituendo quelle precedenti.
+     * Viene invocato dal thread di ranking quando l'ordine degli hotel di una città cambia.
+     *
+     * @param rankedCities Gli hotel di ciascuna città, in ordine di rank locale.
+     */
+    public void publishRankedHotels(Map<String, List<Hotel>> rankedCities) {
+        rankedHotelsByCity.updateAndGet(current -> {
+            Map<String, List<Hotel>> next = new HashMap<>(current);
+            rankedCities.forEach((city, hotels) -> next.put(normalize(city), List.copyOf(hotels)));
+            return Collections.unmodifiableMap(next);
+        });
     }
 
     /**
@@ -101,20 +171,13 @@ public class HotelierServerHotelManager {
      * @return L'hotel che corrisponde sia al nome che alla città, o null se non trovato.
      */
     public Hotel getHotelByNameAndCity(String hotelName, String city) {
-        // Ottengo la lista di hotel situati nella città specificata
-        List<Hotel> cityHotels = getHotelsByCity(city);
-
-        // Acquisisco la lock sulla lista di hotel
-        synchronized (hotels) {
-            // Itero attraverso gli hotel nella città
-            for (var hotel : cityHotels) {
-                // Controllo se il nome dell'hotel corrisponde a quello passato (ignorando maiuscole/minuscole)
-                if (StringUtils.equalsIgnoreCase(hotel.getName(), hotelName)) {
-                    return hotel; // Restituisco l'hotel trovato
-                }
-            }
+        if (hotelName == null || city == null) {
+            return null;
         }
-        return null; // Se non trovato, restituisco null
+        // Se necessario legge dal catalogo gli hotel della città
+        loadCityFromCatalog(city);
+        // Accesso diretto all'indice per (città, nome) normalizzati
+        return hotelsByCityAndName.get(cityAndNameKey(city, hotelName));
     }
 
     /**
@@ -123,19 +186,21 @@ public class HotelierServerHotelManager {
      * @return Una lista di tutte le città.
      */
     public List<String> getCities() {
-        // Creo un set per evitare duplicati nelle città
-        Set<String> cities = new HashSet<>();
-
-        // Acquisisco la lock sulla lista di hotel
-        synchronized (hotels) {
-            // Itero la lista di hotel per estrarre le città uniche
-            for (Hotel hotel : hotels) {
-                cities.add(hotel.getCity()); // Aggiungo la città all'insieme
+        var currentCatalog = catalog;
+        if (currentCatalog != null) {
+            try {
+                // Le città vengono lette dalla tabella delle città del catalogo
+                return currentCatalog.getCities();
+            } catch (IOException exception) {
+                exception.printStackTrace();
             }
         }
-
-        // Restituisco la lista delle città
-        return new ArrayList<>(cities);
+        // Ogni lista dell'indice per città non è vuota: il nome della città è quello del primo hotel
+        List<String> cities = new ArrayList<>(hotelsByCity.size());
+        for (List<Hotel> cityHotels : hotelsByCity.values()) {
+            cities.add(cityHotels.get(0).getCity());
+        }
+        return cities;
     }
 
     /**
@@ -144,29 +209,237 @@ public class HotelierServerHotelManager {
      * @return Una lista di tutti gli hotel.
      */
     public List<Hotel> getHotels() {
+        // Se necessario legge dal catalogo tutti gli hotel non ancora caricati
+        loadAllFromCatalog();
         // Restituisco la lista di tutti gli hotel
         return hotels;
     }
 
+    /**
+     * Legge dal catalogo l'hotel con l'ID specificato, se non è già stato letto.
+     *
+     * @param hotelID L'ID dell'hotel.
+     * @return L'hotel, oppure null se non presente.
+     */
+    private Hotel loadHotelFromCatalog(int hotelID) {
+        synchronized (hotels) {
+            var currentCatalog = catalog;
+            if (currentCatalog == null) {
+                return hotelsByID.get(hotelID);
+            }
+            int record = currentCatalog.findRecordByID(hotelID);
+            if (record < 0) {
+                return null;
+            }
+            // Inserimento singolo: la lista della città viene copiata una sola volta per l'hotel letto
+            List<Hotel> loadedHotels = new ArrayList<>(1);
+            var hotel = loadRecord(currentCatalog, record, loadedHotels);
+            indexCityHotels(loadedHotels);
+            return hotel;
+        }
+    }
+
+    /**
+     * Legge dal catalogo tutti gli hotel della città specificata, se non sono già stati letti.
+     *
+     * @param city La città.
+     */
+    private void loadCityFromCatalog(String city) {
+        if (catalog == null || loadedCities.contains(normalize(city))) {
+            return;
+        }
+        synchronized (hotels) {
+            var currentCatalog = catalog;
+            if (currentCatalog == null || loadedCities.contains(normalize(city))) {
+                return;
+            }
+            try {
+                List<Hotel> loadedHotels = new ArrayList<>();
+                for (int record : currentCatalog.findCityRecords(city)) {
+                    loadRecord(currentCatalog, record, loadedHotels);
+                }
+                // Pubblica la lista della città una sola volta con tutti gli hotel letti
+                indexCityHotels(loadedHotels);
+                loadedCities.add(normalize(city));
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Legge dal catalogo tutti gli hotel non ancora letti e smette di usare il catalogo.
+     * La lista degli hotel viene ricostruita nell'ordine dei record del catalogo.
+     */
+    private void loadAllFromCatalog() {
+        if (catalog == null) {
+            return;
+        }
+        synchronized (hotels) {
+            var currentCatalog = catalog;
+            if (currentCatalog == null) {
+                return;
+            }
+            List<Hotel> loadedHotels = new ArrayList<>();
+            for (int record = 0; record < currentCatalog.size(); record++) {
+                loadRecord(currentCatalog, record, loadedHotels);
+            }
+            // Pubblica le liste delle città una sola volta per città
+            indexCityHotels(loadedHotels);
+            hotels.clear();
+            hotels.addAll(Arrays.asList(catalogHotels));
+            catalogHotels = null;
+            catalog = null;
+        }
+    }
+
+    /**
+     * Legge dal catalogo l'hotel del record specificato e lo aggiunge alla lista e agli indici per ID e nome,
+     * se non già letto. L'hotel letto viene aggiunto a loadedHotels: il chiamante lo pubblica poi nell'indice
+     * per città con {@link #indexCityHotels(List)}. Va invocato tenendo la lock sulla lista di hotel.
+     *
+     * @param currentCatalog Il catalogo da cui leggere.
+     * @param record L'indice del record.
+     * @param loadedHotels La lista a cui aggiungere l'hotel, se letto ora.
+     * @return L'hotel del record.
+     */
+    private Hotel loadRecord(HotelierServerHotelCatalog currentCatalog, int record, List<Hotel> loadedHotels) {
+        if (catalogHotels[record] == null) {
+            try {
+                var hotel = currentCatalog.readHotel(record);
+                catalogHotels[record] = hotel;
+                hotels.add(hotel);
+                indexHotel(hotel);
+                loadedHotels.add(hotel);
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        }
+        return catalogHotels[record];
+    }
+
+    /**
+     * Segnala che i dati di un hotel sono cambiati (ad esempio per una nuova recensione),
+     * in modo che il suo rank venga ricalcolato al prossimo ciclo dell'algoritmo di ranking.
+     *
+     * @param hotel L'hotel modificato.
+     */
+    public void markHotelDirty(Hotel hotel) {
+        dirtyHotels.add(hotel.getId());
+    }
+
+    /**
+     * Restituisce gli hotel segnalati come modificati dall'ultima chiamata e svuota l'insieme delle segnalazioni.
+     *
+     * @return La lista degli hotel modificati.
+     */
+    public List<Hotel> drainDirtyHotels() {
+        List<Hotel> drained = new ArrayList<>();
+        var iterator = dirtyHotels.iterator();
+        while (iterator.hasNext()) {
+            int hotelID = iterator.next();
+            iterator.remove();
+            var hotel = hotelsByID.get(hotelID);
+            if (hotel != null) {
+                drained.add(hotel);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Aggiunge un hotel agli indici per ID e per (città, nome). Va invocato tenendo la lock sulla lista di hotel,
+     * a ogni inserimento di un hotel nel registro; l'indice per città viene aggiornato da
+     * {@link #indexCityHotels(List)}.
+     *
+     * @param hotel L'hotel da indicizzare.
+     */
+    private void indexHotel(Hotel hotel) {
+        hotelsByID.put(hotel.getId(), hotel);
+        hotelsByCityAndName.put(cityAndNameKey(hotel.getCity(), hotel.getName()), hotel);
+    }
+
+    /**
+     * Aggiunge all'indice per città gli hotel inseriti nel registro. Gli hotel vengono prima raggruppati per città,
+     * così ogni lista immutabile viene copiata e sostituita una sola volta per chiamata, anche durante i caricamenti
+     * in blocco. Va invocato tenendo la lock sulla lista di hotel.
+     *
+     * @param newHotels Gli hotel da indicizzare, nell'ordine di inserimento.
+     */
+    private void indexCityHotels(List<Hotel> newHotels) {
+        // Raggruppa gli hotel per città normalizzata mantenendo l'ordine di inserimento
+        Map<String, List<Hotel>> hotelsOfCity = new LinkedHashMap<>();
+        for (Hotel hotel : newHotels) {
+            hotelsOfCity.computeIfAbsent(normalize(hotel.getCity()), city -> new ArrayList<>()).add(hotel);
+        }
+        // Sostituisce la lista di ogni città con una nuova lista immutabile che include i nuovi hotel
+        hotelsOfCity.forEach((city, added) -> hotelsByCity.compute(city, (key, cityHotels) -> {
+            if (cityHotels == null) {
+                return Collections.unmodifiableList(added);
+            }
+            List<Hotel> updated = new ArrayList<>(cityHotels.size() + added.size());
+            updated.addAll(cityHotels);
+            updated.addAll(added);
+            return Collections.unmodifiableList(updated);
+        }));
+    }
+
+    /**
+     * Normalizza una stringa per l'uso come chiave degli indici (confronto case-insensitive).
+     *
+     * @param value La stringa da normalizzare.
+     * @return La stringa normalizzata.
+     */
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Costruisce la chiave dell'indice per (città, nome).
+     *
+     * @param city La città dell'hotel.
+     * @param hotelName Il nome dell'hotel.
+     * @return La chiave normalizzata.
+     */
+    private static String cityAndNameKey(String city, String hotelName) {
+        return normalize(city) + '\0' + normalize(hotelName);
+    }
+
     /**
      * Serializza la lista di hotel nel registro e la salva su disco in formato JSON.
      */
     public void serialize() {
         try {
+            // Il file va riscritto per intero: servono tutti gli hotel
+            loadAllFromCatalog();
             // Acquisisco la lock sulla lista di hotel per garantire la sincronizzazione
             synchronized (hotels) {
-                // Serializzo la lista di hotel in formato JSON
-                String hotelsJson = JsonUtils.serialize(hotels);
-                // Scrivo il JSON nel file di persistenza definito dal path HOTELS_PATH_JSON
-                JsonUtils.writeFile(hotelsJson, new File(HOTELS_PATH_JSON));
+                // Serializzo la lista di hotel in formato JSON direttamente nel file di persistenza
+                // definito dal path HOTELS_PATH_JSON, sostituendolo atomicamente
+                JsonUtils.writeJsonFile(hotels, new File(HOTELS_PATH_JSON));
+                // Se abilitato, aggiorno anche il catalogo binario (scritto dopo il JSON, quindi mai più vecchio)
+                if (isCatalogEnabled()) {
+                    HotelierServerHotelCatalog.write(hotels, new File(HOTELS_CATALOG_PATH));
+                }
             }
         } catch (IOException exception) {
             exception.printStackTrace(); // Gestisco eventuali errori di I/O
         }
     }
 
+    /**
+     * Restituisce true se il catalogo binario degli hotel è abilitato nella config del server.
+     */
+    private static boolean isCatalogEnabled() {
+        var serverConfig = ConfigManager.getServerConfig();
+        return serverConfig != null && serverConfig.isHotelCatalogMapped();
+    }
+
     /**
      * Deserializza la lista di hotel dal disco e la aggiunge alla lista degli hotel nel registro.
+     * Se il catalogo binario è abilitato ed è aggiornato rispetto al file JSON, il catalogo viene soltanto mappato
+     * in memoria e gli hotel verranno letti quando servono; altrimenti viene letto il JSON e, se il catalogo è
+     * abilitato, viene scritto il catalogo per i prossimi avvii.
      */
     public void deserialize() {
         try {
@@ -174,12 +447,32 @@ public class HotelierServerHotelManager {
             synchronized (hotels) {
                 // Ottengo il file contenente gli hotel serializzati in formato JSON
                 var hotelFile = new File(HOTELS_PATH_JSON);
-                // Leggo il contenuto del file JSON
-                var hotelsJSON = JsonUtils.readFile(hotelFile);
-                // Deserializzo i dati JSON nel formato di un array di Hotel
-                var deserializedHotels = Arrays.asList(JsonUtils.deserialize(hotelsJSON, Hotel[].class));
-                // Aggiungo gli hotel deserializzati alla lista di hotel
-                hotels.addAll(deserializedHotels);
+                var catalogFile = new File(HOTELS_CATALOG_PATH);
+                if (isCatalogEnabled() && catalogFile.exists() && catalogFile.lastModified() >= hotelFile.lastModified()) {
+                    try {
+                        var mappedCatalog = HotelierServerHotelCatalog.open(catalogFile);
+                        catalogHotels = new Hotel[mappedCatalog.size()];
+                        catalog = mappedCatalog;
+                        return;
+                    } catch (IOException exception) {
+                        // Catalogo non valido: leggo il JSON
+                        exception.printStackTrace();
+                    }
+                }
+                // Leggo in streaming gli hotel del file, aggiungendo ognuno alla lista di hotel e agli indici
+                int firstLoaded = hotels.size();
+                try {
+                    JsonUtils.readJsonArrayFile(hotelFile, Hotel.class, hotel -> {
+                        hotels.add(hotel);
+                        indexHotel(hotel);
+                    });
+                } finally {
+                    // Pubblica le liste delle città una sola volta, con tutti gli hotel letti
+                    indexCityHotels(hotels.subList(firstLoaded, hotels.size()));
+                }
+                if (isCatalogEnabled()) {
+                    HotelierServerHotelCatalog.write(hotels, catalogFile);
+                }
             }
         } catch (IOException exception) {
             exception.printStackTrace(); // Gestisco eventuali errori di I/O
@@ -90,6 +90,9 @@ public class HotelierServerMain {
             ConfigManager.loadServerConfig();
         }
 
+        // imposto il formato (compatto o indentato) dei file json dei registri
+        JsonUtils.setCompactFileOutput(ConfigManager.getServerConfig().isCompactPersistence());
+
         // ottengo istanza del registro degli hotel
         var hotelRegister = HotelierServerHotelManager.getInstance();
         // ottengo istanza del registro degli utenti
@@ -97,12 +100,12 @@ public class HotelierServerMain {
         // ottengo istanza del registro delle recensioni
         var reviewRegister = HotelierServerReviewManager.getInstance();
 
-        // deserializzo la lista di hotel da disco all' interno del registro
+        // deserializzo in background la lista di utenti e quella di recensioni, in parallelo al catalogo degli hotel;
+        // i metodi dei due registri attendono la fine del rispettivo caricamento
+        new Thread(userRegister::deserialize, "HotelierUsersLoader").start();
+        new Thread(reviewRegister::deserialize, "HotelierReviewsLoader").start();
+        // deserializzo la lista di hotel da disco all' interno del registro: il server si avvia appena è pronta
         hotelRegister.deserialize();
-        // deserializzo la lista di utenti da disco all' interno del registro
-        userRegister.deserialize();
-        // deserializzo la lista di recensioni da disco all' interno del registro
-        reviewRegister.deserialize();
     }
 
 
@@ -114,8 +117,12 @@ public class HotelierServerMain {
 
 
 
+        // avvio il servizio che persiste su disco in background i registri modificati
+        HotelierServerPersistenceService.getInstance().start();
+
         // inizializzo serverNIO per la gestione delle comunicazioni Tcp passandogli indirizzo e porta per la socket Tcp
-        new HotelierNIOServerTCP(serverConfig.getServerAddress(), serverConfig.getTcpPort());
+        // e il numero di reactor tra cui distribuire le connessioni
+        new HotelierNIOServerTCP(serverConfig.getServerAddress(), serverConfig.getTcpPort(), serverConfig.getReactorThreads());
 
         // inizializzo serverRmi passandogli remoteReference per esportarzione dello stub e porta per il registro Rmi
         var hotelierServerRmi = new HotelierServerRMI(serverConfig.getRmiRemoteReference(), serverConfig.getRmiPort());
@@ -124,9 +131,9 @@ public class HotelierServerMain {
         // cambia primo rank locale di qualsiasi città a tutti i client registrati al gruppo (utenti loggati)
         var hotelierServerMulticast = new HotelierServerMulticast(serverConfig.getMcastAddress(), serverConfig.getMcastPort());
 
-        // inizializzo serverRanking passadongli rankingInterval (secondi che intercorrono tra le sue esecuzioni), serverRmi
-        // e multicast
-        new RankingAlgorithm(serverConfig.getRankingInterval(), hotelierServerRmi, hotelierServerMulticast);
+        // inizializzo serverRanking passadongli rankingInterval (secondi che intercorrono tra le sue esecuzioni), serverRmi,
+        // multicast e il numero di thread su cui calcolare in parallelo i rank delle città
+        new RankingAlgorithm(serverConfig.getRankingInterval(), hotelierServerRmi, hotelierServerMulticast, serverConfig.getRankingThreads());
     }
 
 }
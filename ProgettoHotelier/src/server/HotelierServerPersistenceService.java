@@ -0,0 +1,168 @@
+package server;
+
+import server.Handlers.HotelierServerReviewManager;
+import server.Handlers.HotelierServerUserManager;
+import server.config.ConfigManager;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe HotelierServerPersistenceService si occupa di persistere su disco, in background, i registri di hotel,
+ * utenti e recensioni (write-behind).
+ * I thread che modificano i registri non li serializzano direttamente ma si limitano a segnalarli come modificati
+ * (markHotelsDirty, markUsersDirty, markReviewsDirty), oppure, per le registrazioni già scritte nel log degli utenti,
+ * segnalano il log da sincronizzare su disco (markUserLogDirty). Un thread dedicato riscrive i soli registri segnalati:
+ * • ogni persistenceIntervalMs millisecondi (config del server)
+ * • oppure non appena le modifiche in attesa raggiungono persistenceMaxPendingChanges (config del server)
+ * Più modifiche allo stesso registro tra due scritture vengono quindi accorpate in un'unica scrittura.
+ * Alla terminazione del server (shutdown hook) viene eseguita un'ultima scrittura dei registri ancora modificati.
+ */
+public class HotelierServerPersistenceService implements Runnable {
+
+    // Intervallo tra due scritture se non specificato nella config (millisecondi)
+    private static final int DEFAULT_INTERVAL_MS = 1000;
+    // Modifiche in attesa che forzano una scrittura se non specificato nella config
+    private static final int DEFAULT_MAX_PENDING_CHANGES = 256;
+
+    // Istanza unica della classe (Singleton)
+    private static HotelierServerPersistenceService instance = null;
+
+    /**
+     * Metodo per ottenere l'istanza unica di HotelierServerPersistenceService (Singleton).
+     *
+     * @return L'istanza unica di HotelierServerPersistenceService.
+     */
+    public static synchronized HotelierServerPersistenceService getInstance() {
+        if (instance == null) {
+            var serverConfig = ConfigManager.getServerConfig();
+            int intervalMs = serverConfig != null && serverConfig.getPersistenceIntervalMs() > 0
+                    ? serverConfig.getPersistenceIntervalMs()
+                    : DEFAULT_INTERVAL_MS;
+            int maxPendingChanges = serverConfig != null && serverConfig.getPersistenceMaxPendingChanges() > 0
+                    ? serverConfig.getPersistenceMaxPendingChanges()
+                    : DEFAULT_MAX_PENDING_CHANGES;
+            instance = new HotelierServerPersistenceService(intervalMs, maxPendingChanges);
+        }
+        return instance;
+    }
+
+    // Intervallo massimo tra due scritture (millisecondi)
+    private final int intervalMs;
+    // Numero di modifiche in attesa oltre il quale la scrittura viene anticipata
+    private final int maxPendingChanges;
+    // Flag di modifica dei tre registri
+    private final AtomicBoolean hotelsDirty;
+    private final AtomicBoolean usersDirty;
+    private final AtomicBoolean reviewsDirty;
+    // Flag di sincronizzazione del log delle registrazioni
+    private final AtomicBoolean userLogDirty;
+    // Modifiche segnalate dall'ultima scrittura
+    private final AtomicInteger pendingChanges;
+    // Oggetto su cui il thread di scrittura attende l'intervallo o il raggiungimento della soglia
+    private final Object flushSignal;
+
+    /**
+     * Costruttore privato della classe.
+     *
+     * @param intervalMs Intervallo massimo tra due scritture (millisecondi).
+     * @param maxPendingChanges Numero di modifiche in attesa che anticipa la scrittura.
+     */
+    private HotelierServerPersistenceService(int intervalMs, int maxPendingChanges) {
+        this.intervalMs = intervalMs;
+        this.maxPendingChanges = maxPendingChanges;
+        hotelsDirty = new AtomicBoolean(false);
+        usersDirty = new AtomicBoolean(false);
+        reviewsDirty = new AtomicBoolean(false);
+        userLogDirty = new AtomicBoolean(false);
+        pendingChanges = new AtomicInteger(0);
+        flushSignal = new Object();
+    }
+
+    /**
+     * Avvia il thread di scrittura e registra lo shutdown hook per l'ultima scrittura alla terminazione del server.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "HotelierPersistence");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "HotelierPersistenceShutdown"));
+    }
+
+    // Segnala che il registro degli hotel è stato modificato
+    public void markHotelsDirty() {
+        hotelsDirty.set(true);
+        changeMarked();
+    }
+
+    // Segnala che il registro degli utenti è stato modificato
+    public void markUsersDirty() {
+        usersDirty.set(true);
+        changeMarked();
+    }
+
+    // Segnala che il log delle registrazioni degli utenti va sincronizzato su disco
+    public void markUserLogDirty() {
+        userLogDirty.set(true);
+        changeMarked();
+    }
+
+    // Segnala che il registro delle recensioni è stato modificato
+    public void markReviewsDirty() {
+        reviewsDirty.set(true);
+        changeMarked();
+    }
+
+    /**
+     * Conta una modifica e, al raggiungimento della soglia, sveglia il thread di scrittura.
+     */
+    private void changeMarked() {
+        if (pendingChanges.incrementAndGet() == maxPendingChanges) {
+            synchronized (flushSignal) {
+                flushSignal.notify();
+            }
+        }
+    }
+
+    /**
+     * Ciclo del thread di scrittura: attende l'intervallo (o la soglia di modifiche) e scrive i registri modificati.
+     */
+    @Override
+    public void run() {
+        while (!Thread.interrupted()) {
+            try {
+                synchronized (flushSignal) {
+                    if (pendingChanges.get() < maxPendingChanges) {
+                        flushSignal.wait(intervalMs);
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Scrive su disco i registri segnalati come modificati dall'ultima scrittura.
+     * I flag vengono azzerati prima della scrittura: una modifica segnalata durante la scrittura verrà persistita
+     * alla scrittura successiva.
+     */
+    public synchronized void flush() {
+        pendingChanges.set(0);
+        if (reviewsDirty.getAndSet(false)) {
+            // Le recensioni sono già nel log append-only: basta sincronizzarlo su disco
+            HotelierServerReviewManager.getInstance().syncLog();
+        }
+        boolean userLogPending = userLogDirty.getAndSet(false);
+        if (usersDirty.getAndSet(false)) {
+            // Lo snapshot degli utenti incorpora anche le registrazioni del log
+            HotelierServerUserManager.getInstance().serialize();
+        } else if (userLogPending) {
+            HotelierServerUserManager.getInstance().syncLog();
+        }
+        if (hotelsDirty.getAndSet(false)) {
+            HotelierServerHotelManager.getInstance().serialize();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package server;
+
+import Response_Request_netPackets.localRankPushMessage;
+import Response_Request_netPackets.localRankSyncResponseMessage;
+import model.Hotel;
+import model.LocalHotelRanking;
+import model.LocalRankMove;
+import server.Handlers.HotelierServerConnectionClientHandler;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * La classe HotelierServerRankPushService invia ai client iscritti gli aggiornamenti del rank locale delle città
+ * di interesse direttamente sulla loro connessione TCP, come pacchetti non richiesti (localRankPushMessage) intercalati
+ * alle risposte, in alternativa alle callback RMI.
+ * I client si iscrivono e disiscrivono con i pacchetti subscribeRankMessageRequest e unsubscribeRankMessageRequest.
+ * Le iscrizioni sono indicizzate per città (normalizzata in minuscolo), così che l'aggiornamento di una città visiti
+ * solo le connessioni iscritte a quella città. La classe è implementata con il pattern Singleton.
+ * Gli aggiornamenti contengono solo gli hotel che hanno cambiato posizione, con la versione del ranking a cui portano.
+ * Per ogni città viene mantenuta la versione corrente del ranking (identificativi degli hotel in ordine), da cui
+ * viene costruito il ranking completo per i client che ne perdono una versione (localRankSyncMessageRequest).
+ */
+public class HotelierServerRankPushService {
+
+    // Istanza unica della classe (Singleton)
+    private static HotelierServerRankPushService instance = null;
+
+    /**
+     * Metodo per ottenere l'istanza unica di HotelierServerRankPushService (Singleton).
+     *
+     * @return L'istanza unica di HotelierServerRankPushService.
+     */
+    public static synchronized HotelierServerRankPushService getInstance() {
+        if (instance == null) {
+            instance = new HotelierServerRankPushService();
+        }
+        return instance;
+    }
+
+    // Connessioni iscritte, per città
+    private final Map<String, Set<HotelierServerConnectionClientHandler>> subscribersByCity;
+    // Città a cui è iscritta ciascuna connessione
+    private final Map<HotelierServerConnectionClientHandler, Set<String>> citiesBySubscriber;
+    // Versione corrente del ranking locale, per città
+    private final Map<String, LocalRankVersion> localRanks;
+
+    /**
+     * Versione del ranking locale di una città: numero di versione e identificativi degli hotel in ordine di rank.
+     * Le istanze non vengono modificate dopo la pubblicazione.
+     */
+    private static class LocalRankVersion {
+        private final String city;
+        private final long version;
+        private final int[] hotelIds;
+
+        private LocalRankVersion(String city, long version, int[] hotelIds) {
+            this.city = city;
+            this.version = version;
+            this.hotelIds = hotelIds;
+        }
+    }
+
+    /**
+     * Costruttore privato della classe.
+     */
+    private HotelierServerRankPushService() {
+        subscribersByCity = new ConcurrentHashMap<>();
+        citiesBySubscriber = new ConcurrentHashMap<>();
+        localRanks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Normalizza il nome di una città per il confronto (ignorando maiuscole/minuscole).
+     *
+     * @param city Il nome della città.
+     * @return Il nome in minuscolo.
+     */
+    private static String normalizeCity(String city) {
+        return city.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Iscrive una connessione agli aggiornamenti del rank locale delle città specificate, sostituendo
+     * un'eventuale iscrizione precedente della stessa connessione.
+     *
+     * @param connection La connessione del client.
+     * @param cities Le città di interesse.
+     */
+    public void subscribe(HotelierServerConnectionClientHandler connection, List<String> cities) {
+        Set<String> normalizedCities = cities.stream()
+                .filter(city -> city != null)
+                .map(HotelierServerRankPushService::normalizeCity)
+                .collect(Collectors.toUnmodifiableSet());
+        unsubscribe(connection);
+        citiesBySubscriber.put(connection, normalizedCities);
+        for (String city : normalizedCities) {
+            subscribersByCity.compute(city, (key, subscribers) -> {
+                if (subscribers == null) {
+                    subscribers = ConcurrentHashMap.newKeySet();
+                }
+                subscribers.add(connection);
+                return subscribers;
+            });
+        }
+    }
+
+    /**
+     * Rimuove l'iscrizione di una connessione (disiscrizione esplicita o chiusura della connessione).
+     *
+     * @param connection La connessione del client.
+     */
+    public void unsubscribe(HotelierServerConnectionClientHandler connection) {
+        Set<String> cities = citiesBySubscriber.remove(connection);
+        if (cities == null) {
+            return;
+        }
+        for (String city : cities) {
+            subscribersByCity.computeIfPresent(city, (key, subscribers) -> {
+                subscribers.remove(connection);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+
+    /**
+     * Registra il ranking locale iniziale di una città (versione 0), senza inviare aggiornamenti.
+     *
+     * @param city La città.
+     * @param hotelIds Gli identificativi degli hotel della città, in ordine di rank locale.
+     */
+    public void initLocalRank(String city, int[] hotelIds) {
+        localRanks.put(normalizeCity(city), new LocalRankVersion(city, 0, hotelIds));
+    }
+
+    /**
+     * Pubblica una nuova versione del ranking locale di una città e invia alle connessioni iscritte gli spostamenti
+     * rispetto alla versione precedente.
+     * Il pacchetto viene creato una sola volta e accodato a ciascuna connessione, che lo serializza nella propria
+     * codifica al momento della scrittura; il metodo non attende l'invio.
+     * Viene invocato solo dal thread di ranking, per cui le versioni di una città vengono pubblicate in ordine.
+     *
+     * @param city La città.
+     * @param hotelIds Gli identificativi degli hotel della città, nel nuovo ordine di rank locale.
+     * @param moves Gli hotel che hanno cambiato posizione rispetto alla versione precedente.
+     */
+    public void notifyLocalRank(String city, int[] hotelIds, List<LocalRankMove> moves) {
+        String normalizedCity = normalizeCity(city);
+        LocalRankVersion previous = localRanks.get(normalizedCity);
+        long version = previous == null ? 1 : previous.version + 1;
+        localRanks.put(normalizedCity, new LocalRankVersion(city, version, hotelIds));
+
+        Set<HotelierServerConnectionClientHandler> subscribers = subscribersByCity.get(normalizedCity);
+        if (subscribers == null) {
+            return;
+        }
+        localRankPushMessage pushPacket = new localRankPushMessage(city, version, List.copyOf(moves));
+        for (HotelierServerConnectionClientHandler subscriber : subscribers) {
+            subscriber.pushPacket(pushPacket);
+        }
+    }
+
+    /**
+     * Costruisce la risposta con il ranking locale completo di una città, nella versione corrente, per un client
+     * che deve riallineare la propria copia.
+     *
+     * @param city La città.
+     * @return La risposta con il ranking e la sua versione, oppure null se la città non ha un ranking.
+     */
+    public localRankSyncResponseMessage createSyncResponse(String city) {
+        LocalRankVersion current = localRanks.get(normalizeCity(city));
+        if (current == null) {
+            return null;
+        }
+        HotelierServerHotelManager hotelManager = HotelierServerHotelManager.getInstance();
+        LocalHotelRanking localRank = new LocalHotelRanking(current.city);
+        for (int hotelId : current.hotelIds) {
+            Hotel hotel = hotelManager.getHotelByID(hotelId);
+            if (hotel != null) {
+                localRank.add(hotel);
+            }
+        }
+        return new localRankSyncResponseMessage(localRank, current.version);
+    }
+}
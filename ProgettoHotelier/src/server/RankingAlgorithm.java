@@ -4,30 +4,43 @@ import RMI.RMIServer.HotelierServerRMI;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import model.Hotel;
 import model.LocalHotelRanking;
-import model.Recensioni;
+import model.LocalRankMove;
 import server.Handlers.HotelierServerReviewManager;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class RankingAlgorithm implements Runnable {
 
     /**
      * La classe RankingAlgorithm gestisce il calcolo e l'aggiornamento periodico dei rank globali e locali degli hotel.
      * Avvia un thread che esegue, ogni intervallo di tempo definito (rankingInterval), i seguenti passaggi:
-     * 1. Calcola il rank globale di ogni hotel sulla base di: numero, qualità e attualità delle sue recensioni.
-     * 2. Aggiorna i rank locali degli hotel per ogni città.
-     * 3. Serializza e persiste i rank aggiornati degli hotel su disco.
+     * 1. Calcola il rank globale degli hotel modificati (segnalati dal gestore dei messaggi con markHotelDirty)
+     *    sulla base di: numero, qualità e attualità delle sue recensioni. Al primo ciclo e a ogni cambio di giorno
+     *    vengono ricalcolati tutti gli hotel, perché l'attualità delle recensioni cambia col passare del tempo.
+     * 2. Aggiorna i rank locali degli hotel per le sole città in cui almeno un rank è cambiato. Le città sono
+     *    indipendenti tra loro, per cui i passi 1 e 2 e il confronto con il rank locale precedente vengono eseguiti
+     *    in parallelo, un task per città, su un ForkJoinPool di rankingThreads thread.
+     * 3. Se qualcosa è cambiato, segnala gli hotel al servizio di persistenza che li salverà su disco.
      * 4. In caso di cambiamento della prima posizione del rank locale di una città, lo notifica tramite multicast a tutti gli utenti loggati.
-     * 5. In caso di cambiamento del rank locale, lo notifica tramite callback RMI a tutti gli utenti interessati.
+     * 5. In caso di cambiamento del rank locale, invia ai client iscritti via TCP i soli hotel che hanno cambiato
+     *    posizione (con la nuova versione del ranking) e notifica il ranking completo tramite callback RMI.
+     * Le notifiche dei passi 4 e 5 vengono raccolte dai task e inviate al termine del ciclo dal thread di ranking.
+     * Del ranking locale precedente di ogni città vengono mantenuti solo gli identificativi degli hotel in ordine,
+     * sufficienti per il confronto e per il calcolo degli spostamenti: gli hotel non vengono copiati.
+     * La lista ordinata degli hotel di ogni città viene pubblicata nel gestore degli hotel all'avvio e a ogni cambio
+     * di ordine, così che le ricerche di tutti gli hotel di una città non debbano ordinarli.
+     * Se gli hotel vengono letti dal catalogo binario mappato, l'inizializzazione e il primo ciclo completo li
+     * leggono tutti: il rank è memorizzato negli oggetti Hotel, per cui il ranking non può lavorare sul catalogo.
      *
      * Il calcolo del rank globale di un hotel è eseguito come segue:
      * 1. Ottiene tutte le recensioni dell'hotel.
-     * 2. Calcola la media dei giorni trascorsi dalla pubblicazione di ogni recensione.
+     * 2. Calcola la media dei giorni trascorsi dalla pubblicazione di ogni recensione, usando gli aggregati
+     *    per hotel mantenuti dal gestore delle recensioni (numero di recensioni e somma dei giorni di pubblicazione).
      * 3. Calcola il nuovo rank globale con la formula:
      *    • (rate * numero recensioni) + (1 / (1 + media giorni trascorsi))
      *    La formula dà più peso alla qualità e quantità delle recensioni, e tiene conto dell'attualità delle recensioni.
@@ -39,12 +52,18 @@ public class RankingAlgorithm implements Runnable {
     private final HotelierServerRMI serverRmi;
     // Riferimento all'oggetto per inviare notifiche tramite multicast
     private final HotelierServerMulticast multicastSender;
+    // Riferimento al servizio che invia gli aggiornamenti del rank locale sulle connessioni TCP iscritte
+    private final HotelierServerRankPushService rankPushService;
     // Riferimento al gestore degli hotel per accedere alla lista di hotel
     private final HotelierServerHotelManager hotelRegister;
     // Riferimento al gestore delle recensioni per accedere ai dati delle recensioni degli hotel
     private final HotelierServerReviewManager reviewRegister;
-    // Lista che tiene traccia dei rank locali per ciascuna città
-    private final List<LocalHotelRanking> localRanks;
+    // Mappa che tiene traccia dei rank locali per ciascuna città (chiave: nome della città in minuscolo)
+    private final Map<String, CityLocalRank> localRanks;
+    // Pool su cui vengono eseguiti in parallelo i ricalcoli dei rank delle città
+    private final ForkJoinPool rankingPool;
+    // Giorno (epoch-day) dell'ultimo ricalcolo completo dei rank, -1 se non ancora eseguito
+    private long lastFullRefreshDay = -1;
 
     /**
      * Costruttore della classe. Inizializza l'intervallo per il calcolo del ranking, i riferimenti ai componenti
@@ -54,16 +73,20 @@ public class RankingAlgorithm implements Runnable {
      * @param rankingInterval Intervallo in secondi per calcolare e aggiornare i rank.
      * @param serverRmi Riferimento al server RMI per le notifiche.
      * @param multicastSender Riferimento al multicast sender per inviare notifiche tramite multicast.
+     * @param rankingThreads Numero di thread del pool di ranking (0 = numero di processori disponibili).
      */
-    public RankingAlgorithm(int rankingInterval, HotelierServerRMI serverRmi, HotelierServerMulticast multicastSender) {
+    public RankingAlgorithm(int rankingInterval, HotelierServerRMI serverRmi, HotelierServerMulticast multicastSender, int rankingThreads) {
         // Imposta l'intervallo per i calcoli dei rank
         this.rankingInterval = rankingInterval;
         this.serverRmi = serverRmi;
         this.multicastSender = multicastSender;
+        rankPushService = HotelierServerRankPushService.getInstance();
         // Ottieni i riferimenti per il gestore degli hotel e delle recensioni
         hotelRegister = HotelierServerHotelManager.getInstance();
         reviewRegister = HotelierServerReviewManager.getInstance();
-        localRanks = new ArrayList<>();
+        localRanks = new HashMap<>();
+        // Inizializza il pool per il calcolo parallelo dei rank delle città
+        rankingPool = new ForkJoinPool(rankingThreads > 0 ? rankingThreads : Runtime.getRuntime().availableProcessors());
 
         // Avvia il thread che eseguirà periodicamente il calcolo del ranking
         Thread thread = new Thread(this);
@@ -73,50 +96,30 @@ public class RankingAlgorithm implements Runnable {
     /**
      * Inizializza la lista dei rank locali, che tiene traccia dei rank di tutti gli hotel in ciascuna città.
      * Per ogni città, la lista degli hotel viene ordinata in base al rank locale e il ranking locale per quella città
-     * viene registrato nella lista `localRanks`.
+     * viene registrato nella mappa `localRanks`.
      */
     private void initializeLocalRanks() {
         // Ottieni l'elenco delle città degli hotel
         var cities = hotelRegister.getCities();
+        Map<String, List<Hotel>> rankedCities = new HashMap<>();
         // Per ogni città, ottieni gli hotel e calcola il loro ranking
         for (String city : cities) {
-            var hotels = hotelRegister.getHotelsByCity(city);
+            var hotels = new ArrayList<>(hotelRegister.getHotelsByCity(city));
             // Ordina gli hotel per rank locale
             Collections.sort(hotels, Comparator.comparingInt(Hotel::getLocalRank));
-            var localRank = new LocalHotelRanking(city);
+            var localRank = new CityLocalRank(city, hotelIds(hotels));
 
-            // Aggiungi ogni hotel al ranking locale per la città
-            for (Hotel hotel : hotels) {
-                localRank.add(new Hotel(hotel));
-            }
-
-            // Aggiungi il ranking locale alla lista dei rank locali
-            localRanks.add(localRank);
+            // Aggiungi il ranking locale alla lista dei rank locali e registralo come versione iniziale
+            localRanks.put(normalizeCity(city), localRank);
+            rankPushService.initLocalRank(city, localRank.hotelIds);
+            rankedCities.put(city, hotels);
         }
+        // Pubblica le liste ordinate degli hotel di tutte le città
+        hotelRegister.publishRankedHotels(rankedCities);
     }
 
     /**
-     * Aggiorna i rank locali di tutti gli hotel nel registro, ordinandoli in base al rank globale.
-     */
-    private void udpateHotelsLocalRank() {
-        // Ottieni l'elenco delle città
-        var cities = hotelRegister.getCities();
-        // Per ogni città, aggiorna il ranking locale degli hotel
-        for (String city : cities) {
-            var hotels = hotelRegister.getHotelsByCity(city);
-            // Ordina gli hotel in base al rank globale (decrescente)
-            Collections.sort(hotels, Comparator.comparingDouble(Hotel::getRank).reversed());
-
-            // Assegna il rank locale a ciascun hotel
-            for (int i = 0; i < hotels.size(); i++) {
-                var hotel = hotels.get(i);
-                hotel.setLocalRanking(i + 1);  // Il rank locale è 1-based
-            }
-        }
-    }
-
-    /**
-     * Esegue il calcolo periodico dei rank globali e locali, aggiornando i ranking di tutti gli hotel e
+     * Esegue il calcolo periodico dei rank globali e locali, aggiornando i ranking degli hotel modificati e
      * inviando notifiche in caso di cambiamenti significativi.
      */
     @Override
@@ -126,45 +129,72 @@ public class RankingAlgorithm implements Runnable {
 
         // Ciclo principale che continua finché il thread non viene interrotto
         while (!Thread.interrupted()) {
-            // Ottieni l'elenco di tutti gli hotel
-            var hotels = hotelRegister.getHotels();
-            // Per ogni hotel, calcola e aggiorna il rank globale
+            long today = LocalDate.now().toEpochDay();
+            // Gli hotel modificati vengono sempre prelevati, anche in caso di ricalcolo completo
+            List<Hotel> hotels = hotelRegister.drainDirtyHotels();
+            if (today != lastFullRefreshDay) {
+                // Primo ciclo o cambio di giorno: l'attualità delle recensioni è cambiata per tutti gli hotel
+                hotels = hotelRegister.getHotels();
+                lastFullRefreshDay = today;
+            }
+
+            // Raggruppa per città gli hotel da ricalcolare
+            Map<String, List<Hotel>> changedCities = new HashMap<>();
             for (Hotel hotel : hotels) {
-                if (hotel.getReviewCount() != 0) {
-                    var rank = calculateRank(hotel);  // Calcola il nuovo rank globale
-                    hotel.setRankLevel(rank);  // Aggiorna il rank globale dell'hotel
+                changedCities.computeIfAbsent(normalizeCity(hotel.getCity()), city -> new ArrayList<>()).add(hotel);
+            }
+
+            // Se nessun hotel è cambiato non c'è niente da aggiornare, persistere o notificare
+            if (changedCities.isEmpty()) {
+                sleep(rankingInterval);
+                continue;
+            }
+
+            // Ogni città è indipendente: ricalcolo e confronto dei rank vengono eseguiti in parallelo sul pool
+            List<Callable<CityRankUpdate>> tasks = new ArrayList<>();
+            for (Map.Entry<String, List<Hotel>> entry : changedCities.entrySet()) {
+                var localRank = localRanks.get(entry.getKey());
+                if (localRank != null) {
+                    tasks.add(() -> updateCityRank(localRank, entry.getValue(), today));
+                }
+            }
+            List<CityRankUpdate> updates = new ArrayList<>();
+            for (Future<CityRankUpdate> future : rankingPool.invokeAll(tasks)) {
+                try {
+                    updates.add(future.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();  // Gestisce eventuali errori nel calcolo del rank di una città
                 }
             }
 
-            // Aggiorna i rank locali per tutte le città
-            udpateHotelsLocalRank();
-            // Serializza e persiste i dati aggiornati sul disco
-            hotelRegister.serialize();
-
-            // Controlla se ci sono cambiamenti nei rank locali
-            for (LocalHotelRanking localRank : localRanks) {
-                var localRankHotels = localRank.getHotels();
-                var localRankCity = localRank.getCity();
-                var cityHotels = hotelRegister.getHotelsByCity(localRankCity);
-                // Ordina i ranking locali e quelli per città
-                Collections.sort(localRankHotels, Comparator.comparingInt(Hotel::getLocalRank));
-                Collections.sort(cityHotels, Comparator.comparingInt(Hotel::getLocalRank));
-                var localRankFirstHotel = localRankHotels.get(0);
-                var cityHotelsFirstHotel = cityHotels.get(0);
+            // Segnala i dati aggiornati per la persistenza su disco
+            HotelierServerPersistenceService.getInstance().markHotelsDirty();
+
+            // Pubblica in un'unica sostituzione le nuove liste ordinate delle città il cui ordine è cambiato
+            Map<String, List<Hotel>> rankedCities = new HashMap<>();
+            for (CityRankUpdate update : updates) {
+                if (update.moves != null) {
+                    rankedCities.put(update.localRank.city, update.cityHotels);
+                }
+            }
+            if (!rankedCities.isEmpty()) {
+                hotelRegister.publishRankedHotels(rankedCities);
+            }
 
+            // Invia le notifiche raccolte dai task, una città alla volta
+            for (CityRankUpdate update : updates) {
                 // Se la prima posizione del ranking locale è cambiata, invia una notifica tramite multicast
-                if (localRankFirstHotel.getId() != cityHotelsFirstHotel.getId()) {
-                    multicastSender.notifyFirstPosition(cityHotelsFirstHotel);
+                if (update.newFirstHotel != null) {
+                    multicastSender.notifyFirstPosition(update.newFirstHotel);
                 }
 
-                // Se il ranking locale è cambiato, invia una notifica tramite RMI
-                if (isLocalRankChanged(localRankHotels, cityHotels)) {
-                    List<Hotel> cityHotelsCopy = new ArrayList<>();
-                    for (Hotel hotel : cityHotels) {
-                        cityHotelsCopy.add(new Hotel(hotel));  // Copia i dati dell'hotel per la notifica
-                    }
-                    localRank.setHotels(cityHotelsCopy);  // Aggiorna la lista di hotel del ranking locale
+                // Se il ranking locale è cambiato, invia gli spostamenti ai client iscritti via TCP e il ranking tramite RMI
+                if (update.moves != null) {
+                    rankPushService.notifyLocalRank(update.localRank.city, update.localRank.hotelIds, update.moves);
                     try {
+                        // Il ranking viene serializzato subito, per cui contiene direttamente gli hotel della città
+                        var localRank = new LocalHotelRanking(update.localRank.city);
+                        localRank.setHotels(update.cityHotels);
                         serverRmi.notifyLocalRank(localRank);  // Notifica tramite RMI
                     } catch (JsonProcessingException e) {
                         throw new RuntimeException(e);  // Gestisce eventuali errori di serializzazione
@@ -177,45 +207,153 @@ public class RankingAlgorithm implements Runnable {
     }
 
     /**
-     * Verifica se il ranking locale di una città è cambiato confrontando l'ordine degli hotel tra
-     * il ranking locale precedente e quello corrente.
+     * Ricalcola i rank di una città: aggiorna il rank globale degli hotel modificati, riordina gli hotel della città
+     * assegnando i rank locali e confronta il risultato con il ranking locale precedente.
+     * Viene eseguito da un thread del pool di ranking; ogni task lavora su una città diversa.
      *
-     * @param localRankHotels Lista di hotel nel ranking locale precedente.
+     * @param localRank Il ranking locale precedente della città, aggiornato se cambiato.
+     * @param changedHotels Gli hotel della città di cui ricalcolare il rank globale.
+     * @param today Il giorno corrente (epoch-day).
+     * @return Le notifiche da inviare per la città.
+     */
+    private CityRankUpdate updateCityRank(CityLocalRank localRank, List<Hotel> changedHotels, long today) {
+        // Per ogni hotel modificato, calcola e aggiorna il rank globale
+        for (Hotel hotel : changedHotels) {
+            if (hotel.getReviewCount() != 0) {
+                var rank = calculateRank(hotel, today);  // Calcola il nuovo rank globale
+                hotel.setRankLevel(rank);  // Aggiorna il rank globale dell'hotel
+            }
+        }
+
+        // Ordina gli hotel della città in base al rank globale (decrescente) e assegna il rank locale
+        var cityHotels = new ArrayList<>(hotelRegister.getHotelsByCity(localRank.city));
+        Collections.sort(cityHotels, Comparator.comparingDouble(Hotel::getRank).reversed());
+        for (int i = 0; i < cityHotels.size(); i++) {
+            cityHotels.get(i).setLocalRanking(i + 1);  // Il rank locale è 1-based
+        }
+
+        var update = new CityRankUpdate(localRank);
+        var previousIds = localRank.hotelIds;
+
+        // Controlla se la prima posizione del ranking locale è cambiata
+        if (previousIds.length == 0 || previousIds[0] != cityHotels.get(0).getId()) {
+            update.newFirstHotel = cityHotels.get(0);
+        }
+
+        // Controlla se il ranking locale è cambiato, calcolando gli hotel che hanno cambiato posizione
+        var moves = computeMoves(previousIds, cityHotels);
+        if (!moves.isEmpty()) {
+            localRank.hotelIds = hotelIds(cityHotels);  // Aggiorna l'ordine degli hotel del ranking locale
+            update.moves = moves;
+            update.cityHotels = cityHotels;
+        }
+        return update;
+    }
+
+    /**
+     * Ranking locale di una città: gli identificativi degli hotel in ordine di rank locale.
+     * Viene aggiornato solo dal task che ricalcola la città.
+     */
+    private static class CityLocalRank {
+        // Nome della città
+        private final String city;
+        // Identificativi degli hotel della città, in ordine di rank locale
+        private int[] hotelIds;
+
+        private CityLocalRank(String city, int[] hotelIds) {
+            this.city = city;
+            this.hotelIds = hotelIds;
+        }
+    }
+
+    /**
+     * Risultato del ricalcolo dei rank di una città, con le notifiche da inviare al termine del ciclo.
+     */
+    private static class CityRankUpdate {
+        // Ranking locale della città
+        private final CityLocalRank localRank;
+        // Nuovo primo hotel della città, null se la prima posizione non è cambiata
+        private Hotel newFirstHotel;
+        // Hotel che hanno cambiato posizione, null se l'ordine degli hotel della città non è cambiato
+        private List<LocalRankMove> moves;
+        // Hotel della città nel nuovo ordine, per la pubblicazione e la notifica RMI (valorizzato solo se l'ordine è cambiato)
+        private List<Hotel> cityHotels;
+
+        private CityRankUpdate(CityLocalRank localRank) {
+            this.localRank = localRank;
+        }
+    }
+
+    /**
+     * Restituisce gli identificativi degli hotel di una lista, nello stesso ordine.
+     *
+     * @param hotels La lista di hotel.
+     * @return Gli identificativi degli hotel.
+     */
+    private static int[] hotelIds(List<Hotel> hotels) {
+        int[] ids = new int[hotels.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hotels.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Normalizza il nome di una città per l'uso come chiave (confronto case-insensitive).
+     *
+     * @param city Il nome della città.
+     * @return Il nome della città in minuscolo.
+     */
+    private static String normalizeCity(String city) {
+        return city.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Calcola gli hotel che hanno cambiato posizione tra il ranking locale precedente di una città e quello corrente.
+     * Il ranking locale è cambiato se e solo se la lista restituita non è vuota.
+     *
+     * @param previousIds Gli identificativi degli hotel nel ranking locale precedente.
      * @param cityHotels Lista di hotel nel ranking corrente della città.
-     * @return true se il ranking locale è cambiato, altrimenti false.
+     * @return Gli spostamenti degli hotel (posizioni 1-based, posizione precedente 0 per un hotel nuovo).
      */
-    private boolean isLocalRankChanged(List<Hotel> localRankHotels, List<Hotel> cityHotels) {
-        if (localRankHotels.size() != cityHotels.size()) {
-            return true;  // Se il numero di hotel differisce, i rank locali sono cambiati
+    private List<LocalRankMove> computeMoves(int[] previousIds, List<Hotel> cityHotels) {
+        List<LocalRankMove> moves = new ArrayList<>();
+        // Caso comune: stesso numero di hotel, confronta gli hotel uno ad uno senza costruire l'indice
+        if (previousIds.length == cityHotels.size()) {
+            int i = 0;
+            while (i < previousIds.length && previousIds[i] == cityHotels.get(i).getId()) {
+                i++;
+            }
+            if (i == previousIds.length) {
+                return moves;  // Nessun cambiamento nel ranking
+            }
         }
 
-        // Confronta gli hotel uno ad uno
-        for (int i = 0; i < localRankHotels.size(); i++) {
-            var localHotel = localRankHotels.get(i);
-            var cityHotel = cityHotels.get(i);
-            if (localHotel.getId() != cityHotel.getId()) {
-                return true;  // Se l'ID di un hotel differisce, i rank locali sono cambiati
+        // Posizione precedente di ciascun hotel
+        Map<Integer, Integer> previousPositions = new HashMap<>();
+        for (int i = 0; i < previousIds.length; i++) {
+            previousPositions.put(previousIds[i], i + 1);
+        }
+        for (int i = 0; i < cityHotels.size(); i++) {
+            int hotelId = cityHotels.get(i).getId();
+            int oldPosition = previousPositions.getOrDefault(hotelId, 0);
+            if (oldPosition != i + 1) {
+                moves.add(new LocalRankMove(hotelId, oldPosition, i + 1));
             }
         }
-        return false;  // Nessun cambiamento nel ranking
+        return moves;
     }
 
     /**
      * Calcola il rank globale di un hotel in base alla qualità, quantità e attualità delle recensioni.
      *
      * @param hotel L'hotel di cui calcolare il rank.
+     * @param today Il giorno corrente (epoch-day).
      * @return Il rank globale dell'hotel (compreso tra 1 e 5).
      */
-    private double calculateRank(Hotel hotel) {
-        // Ottieni la lista delle recensioni per l'hotel
-        var reviews = reviewRegister.getHotelReviews(hotel);
-
-        // Calcola la media dei giorni trascorsi dalla pubblicazione di ciascuna recensione
-        int totalDays = 0;
-        for (Recensioni review : reviews) {
-            var timestamp = LocalDateTime.parse(review.getTimestamp());
-            totalDays += ChronoUnit.DAYS.between(timestamp, LocalDateTime.now());
-        }
+    private double calculateRank(Hotel hotel, long today) {
+        // Somma dei giorni trascorsi dalla pubblicazione di ciascuna recensione, letta dagli aggregati dell'hotel
+        long totalDays = reviewRegister.getTotalReviewAgeDays(hotel, today);
 
         // Calcola la media dei giorni trascorsi
         int reviewCount = hotel.getReviewCount();
@@ -14,7 +14,7 @@ public class ConfigManager {
 
     public static void createDefeaultSesttings(){
         try{
-            serverConfig = new HotelierServerConfig(9999, 1099, 49152, 10, "localhost", "Hotelier-Service-Program", "230.0.0.0");
+            serverConfig = new HotelierServerConfig(9999, 1099, 49152, 10, 4, 67108864L, 65536, 0, 1000, 256, 4194304L, false, false, 210000, 3600, 1800, 1800, 30, 4, 64, 5000, "localhost", "Hotelier-Service-Program", "230.0.0.0");
             var jsonConfig = JsonUtils.serialize(serverConfig);
             JsonUtils.writeFile(jsonConfig, new File(SERVER_CONFIG_JSON));
         }catch (IOException e){
@@ -11,6 +11,23 @@ public class HotelierServerConfig {
      * • rmiPort, porta per registro Rmi
      * • mcastPort, porta per socket mutlicast
      * • rankingInterval, secondi da intercorrere tra calcoli successivi dei rank degli hotel
+     * • reactorThreads, numero di reactor NIO tra cui distribuire le connessioni (0 = singolo selector)
+     * • bufferPoolMaxBytes, byte massimi trattenuti dal pool di buffer diretti del server
+     * • writeBudgetBytes, byte massimi di risposte da scrivere su una connessione per ogni passata del selector
+     * • rankingThreads, thread del pool su cui calcolare in parallelo i rank delle città (0 = numero di processori)
+     * • persistenceIntervalMs, millisecondi massimi tra due scritture su disco dei registri modificati
+     * • persistenceMaxPendingChanges, modifiche in attesa che anticipano la scrittura su disco dei registri
+     * • reviewLogCompactionBytes, dimensione del log delle recensioni oltre la quale viene compattato nello snapshot
+     * • compactPersistence, se true i file json dei registri vengono scritti in forma compatta (senza indentazione)
+     * • hotelCatalogMapped, se true gli hotel vengono salvati anche in un catalogo binario, mappato in memoria all'avvio
+     * • passwordHashIterations, iterazioni di PBKDF2 per l'hash delle password (fattore di lavoro)
+     * • sessionTokenTtlSeconds, secondi di validità dei token di sessione rilasciati al login
+     * • sessionIdleTimeoutSeconds, secondi di inattività dopo cui una sessione di login scade (-1 = nessuna scadenza)
+     * • connectionIdleTimeoutSeconds, secondi di inattività dopo cui il server chiude una connessione client (0 = nessun limite)
+     * • readTimeoutSeconds, secondi entro cui un pacchetto iniziato deve essere ricevuto completamente (0 = nessun limite)
+     * • rmiCallbackThreads, thread del pool che consegna le notifiche RMI ai client registrati
+     * • rmiCallbackQueueSize, notifiche RMI in attesa per client oltre le quali il client viene rimosso perché troppo lento
+     * • rmiCallbackTimeoutMs, millisecondi massimi di attesa della risposta di un client a una notifica RMI
      * • serverAddress, indirizzo socket Tcp/Rmi
      * • rmiRemoteReference, nome per reperire stub server dal registro rmi
      * • mcastAddress, indirizzo ip socket multicast
@@ -20,6 +37,23 @@ public class HotelierServerConfig {
     private final int rmiPort;
     private final int mcastPort;
     private final int rankingInterval;
+    private final int reactorThreads;
+    private final long bufferPoolMaxBytes;
+    private final int writeBudgetBytes;
+    private final int rankingThreads;
+    private final int persistenceIntervalMs;
+    private final int persistenceMaxPendingChanges;
+    private final long reviewLogCompactionBytes;
+    private final boolean compactPersistence;
+    private final boolean hotelCatalogMapped;
+    private final int passwordHashIterations;
+    private final int sessionTokenTtlSeconds;
+    private final int sessionIdleTimeoutSeconds;
+    private final int connectionIdleTimeoutSeconds;
+    private final int readTimeoutSeconds;
+    private final int rmiCallbackThreads;
+    private final int rmiCallbackQueueSize;
+    private final int rmiCallbackTimeoutMs;
     private final String serverAddress;
     private final String rmiRemoteReference;
     private final String mcastAddress;
@@ -32,6 +66,23 @@ public class HotelierServerConfig {
             @JsonProperty("rmiPort") int rmiPort,
             @JsonProperty("mcastPort") int mcastPort,
             @JsonProperty("rankingInterval") int rankingInterval,
+            @JsonProperty("reactorThreads") int reactorThreads,
+            @JsonProperty("bufferPoolMaxBytes") long bufferPoolMaxBytes,
+            @JsonProperty("writeBudgetBytes") int writeBudgetBytes,
+            @JsonProperty("rankingThreads") int rankingThreads,
+            @JsonProperty("persistenceIntervalMs") int persistenceIntervalMs,
+            @JsonProperty("persistenceMaxPendingChanges") int persistenceMaxPendingChanges,
+            @JsonProperty("reviewLogCompactionBytes") long reviewLogCompactionBytes,
+            @JsonProperty("compactPersistence") boolean compactPersistence,
+            @JsonProperty("hotelCatalogMapped") boolean hotelCatalogMapped,
+            @JsonProperty("passwordHashIterations") int passwordHashIterations,
+            @JsonProperty("sessionTokenTtlSeconds") int sessionTokenTtlSeconds,
+            @JsonProperty("sessionIdleTimeoutSeconds") int sessionIdleTimeoutSeconds,
+            @JsonProperty("connectionIdleTimeoutSeconds") int connectionIdleTimeoutSeconds,
+            @JsonProperty("readTimeoutSeconds") int readTimeoutSeconds,
+            @JsonProperty("rmiCallbackThreads") int rmiCallbackThreads,
+            @JsonProperty("rmiCallbackQueueSize") int rmiCallbackQueueSize,
+            @JsonProperty("rmiCallbackTimeoutMs") int rmiCallbackTimeoutMs,
             @JsonProperty("serverAddress") String serverAddress,
             @JsonProperty("rmiRemoteReference") String rmiRemoteReference,
             @JsonProperty("mcastAddress") String mcastAddress
@@ -40,6 +91,23 @@ public class HotelierServerConfig {
         this.rmiPort = rmiPort;
         this.mcastPort = mcastPort;
         this.rankingInterval = rankingInterval;
+        this.reactorThreads = reactorThreads;
+        this.bufferPoolMaxBytes = bufferPoolMaxBytes;
+        this.writeBudgetBytes = writeBudgetBytes;
+        this.rankingThreads = rankingThreads;
+        this.persistenceIntervalMs = persistenceIntervalMs;
+        this.persistenceMaxPendingChanges = persistenceMaxPendingChanges;
+        this.reviewLogCompactionBytes = reviewLogCompactionBytes;
+        this.compactPersistence = compactPersistence;
+        this.hotelCatalogMapped = hotelCatalogMapped;
+        this.passwordHashIterations = passwordHashIterations;
+        this.sessionTokenTtlSeconds = sessionTokenTtlSeconds;
+        this.sessionIdleTimeoutSeconds = sessionIdleTimeoutSeconds;
+        this.connectionIdleTimeoutSeconds = connectionIdleTimeoutSeconds;
+        this.readTimeoutSeconds = readTimeoutSeconds;
+        this.rmiCallbackThreads = rmiCallbackThreads;
+        this.rmiCallbackQueueSize = rmiCallbackQueueSize;
+        this.rmiCallbackTimeoutMs = rmiCallbackTimeoutMs;
         this.serverAddress = serverAddress;
         this.rmiRemoteReference = rmiRemoteReference;
         this.mcastAddress = mcastAddress;
@@ -61,6 +129,74 @@ public class HotelierServerConfig {
         return rankingInterval;
     }
 
+    public int getReactorThreads() {
+        return reactorThreads;
+    }
+
+    public long getBufferPoolMaxBytes() {
+        return bufferPoolMaxBytes;
+    }
+
+    public int getWriteBudgetBytes() {
+        return writeBudgetBytes;
+    }
+
+    public int getRankingThreads() {
+        return rankingThreads;
+    }
+
+    public int getPersistenceIntervalMs() {
+        return persistenceIntervalMs;
+    }
+
+    public int getPersistenceMaxPendingChanges() {
+        return persistenceMaxPendingChanges;
+    }
+
+    public long getReviewLogCompactionBytes() {
+        return reviewLogCompactionBytes;
+    }
+
+    public boolean isCompactPersistence() {
+        return compactPersistence;
+    }
+
+    public boolean isHotelCatalogMapped() {
+        return hotelCatalogMapped;
+    }
+
+    public int getPasswordHashIterations() {
+        return passwordHashIterations;
+    }
+
+    public int getSessionTokenTtlSeconds() {
+        return sessionTokenTtlSeconds;
+    }
+
+    public int getSessionIdleTimeoutSeconds() {
+        return sessionIdleTimeoutSeconds;
+    }
+
+    public int getConnectionIdleTimeoutSeconds() {
+        return connectionIdleTimeoutSeconds;
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    public int getRmiCallbackThreads() {
+        return rmiCallbackThreads;
+    }
+
+    public int getRmiCallbackQueueSize() {
+        return rmiCallbackQueueSize;
+    }
+
+    public int getRmiCallbackTimeoutMs() {
+        return rmiCallbackTimeoutMs;
+    }
+
     public String getServerAddress() {
         return serverAddress;
     }
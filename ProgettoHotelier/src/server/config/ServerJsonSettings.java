@@ -9,6 +9,16 @@ public class ServerJsonSettings {
     public static final String HOTELS_PATH_JSON = "resources" + File.separator + "Hotels.json";
     // path file json reviews
     public static final String REVIEWS_PATH_JSON = "resources" + File.separator + "Reviews.json";
+    // path catalogo binario degli hotel (mappato in memoria all'avvio se hotelCatalogMapped è abilitato)
+    public static final String HOTELS_CATALOG_PATH = "resources" + File.separator + "Hotels.bin";
+    // path segmento di log delle recensioni in scrittura (una recensione per riga, in coda allo snapshot json)
+    public static final String REVIEWS_LOG_PATH = "resources" + File.separator + "Reviews.log";
+    // path segmento di log delle recensioni in corso di compattazione nello snapshot json
+    public static final String REVIEWS_COMPACTING_LOG_PATH = "resources" + File.separator + "Reviews.log.compacting";
+    // path segmento di log delle registrazioni in scrittura (un utente per riga, in coda allo snapshot json)
+    public static final String USERS_LOG_PATH = "resources" + File.separator + "Users.log";
+    // path segmento di log delle registrazioni in corso di incorporazione nello snapshot json
+    public static final String USERS_COMPACTING_LOG_PATH = "resources" + File.separator + "Users.log.compacting";
     // path file json useres
     public static final String USERS_PATH_JSON = "resources" + File.separator + "Users.json";
     // path file json config server
@@ -0,0 +1,47 @@
+package utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * La classe ByteBufferInputStream espone il contenuto rimanente di un ByteBuffer come InputStream,
+ * in modo da poterlo passare direttamente a Jackson senza copiarlo in un array di byte.
+ * Funziona anche con buffer diretti, che non hanno un array di supporto.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    // Buffer da cui leggere i dati (dalla posizione corrente fino al limite)
+    private final ByteBuffer buffer;
+
+    /**
+     * Costruttore della classe.
+     *
+     * @param buffer Il buffer da leggere, già pronto per la lettura.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
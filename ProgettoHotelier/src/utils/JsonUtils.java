@@ -1,23 +1,49 @@
 package utils;
 
 import Response_Request_netPackets.Request_ResponseMessage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * La classe JsonUtils fornisce metodi utili per la serializzazione e deserializzazione di oggetti in formato JSON,
  * così come per la lettura e la scrittura di file di testo. Utilizza la libreria Jackson per operazioni di
  * manipolazione JSON.
+ * Le scritture su file sono atomiche: il contenuto viene scritto in un file temporaneo nella stessa cartella,
+ * sincronizzato su disco e infine rinominato sul file di destinazione, così che un crash o un lettore concorrente
+ * vedano sempre o la versione precedente o quella nuova del file, mai un file troncato.
+ * La scrittura e la lettura dei file JSON avvengono in streaming su canali NIO bufferizzati (generator e parser di
+ * Jackson), per cui la memoria usata è limitata dalla dimensione del buffer e non da quella del file.
  */
 public class JsonUtils {
     // Oggetto ObjectMapper di Jackson utilizzato per la serializzazione e deserializzazione JSON
     private static final ObjectMapper objectMapper;
 
+    // Dimensione dei buffer usati per leggere e scrivere i file in streaming
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    // Se true i file JSON vengono scritti in forma compatta (senza indentazione)
+    private static volatile boolean compactFileOutput = false;
+
     // Blocco statico per inizializzare l'ObjectMapper con configurazioni personalizzate
     static {
         // Crea una nuova istanza di ObjectMapper
@@ -74,17 +100,163 @@ public class JsonUtils {
     }
 
     /**
-     * Scrive una stringa nel file specificato.
+     * Imposta il formato dei file JSON scritti con writeJsonFile: compatto (senza indentazione) o leggibile.
+     *
+     * @param compact true per scrivere i file in forma compatta
+     */
+    public static void setCompactFileOutput(boolean compact) {
+        compactFileOutput = compact;
+    }
+
+    /**
+     * Legge in streaming un file contenente un array JSON, deserializzando un elemento alla volta e passandolo
+     * al consumer. Il file non viene mai caricato interamente in memoria.
+     *
+     * @param file il file da leggere
+     * @param elementClass la classe degli elementi dell'array
+     * @param consumer l'operazione da eseguire su ogni elemento deserializzato
+     * @param <T> il tipo degli elementi
+     * @throws IOException se si verifica un errore durante la lettura o se il file non contiene un array JSON
+     */
+    public static <T> void readJsonArrayFile(File file, Class<T> elementClass, Consumer<T> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             JsonParser parser = objectMapper.getFactory().createParser(
+                     new BufferedInputStream(Channels.newInputStream(channel), FILE_BUFFER_SIZE))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Il file " + file + " non contiene un array JSON");
+            }
+            // Deserializza un elemento alla volta fino alla fine dell'array
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IOException("Il file " + file + " è troncato");
+                }
+                if (token != JsonToken.VALUE_NULL) {
+                    consumer.accept(objectMapper.readValue(parser, elementClass));
+                }
+            }
+        }
+    }
+
+    /**
+     * Legge in streaming un file contenente un array JSON, raggruppando gli elementi in blocchi di chunkSize
+     * alberi JSON e passando ogni blocco al consumer. La conversione degli alberi negli oggetti di destinazione
+     * (vedi convert) può così essere eseguita in parallelo, mentre la lettura del file prosegue.
+     *
+     * @param file il file da leggere
+     * @param chunkSize il numero di elementi per blocco
+     * @param chunkConsumer l'operazione da eseguire su ogni blocco
+     * @throws IOException se si verifica un errore durante la lettura o se il file non contiene un array JSON
+     */
+    public static void readJsonArrayFileInChunks(File file, int chunkSize, Consumer<List<JsonNode>> chunkConsumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             JsonParser parser = objectMapper.getFactory().createParser(
+                     new BufferedInputStream(Channels.newInputStream(channel), FILE_BUFFER_SIZE))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Il file " + file + " non contiene un array JSON");
+            }
+            List<JsonNode> chunk = new ArrayList<>(chunkSize);
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == null) {
+                    throw new IOException("Il file " + file + " è troncato");
+                }
+                if (token != JsonToken.VALUE_NULL) {
+                    chunk.add(parser.readValueAsTree());
+                }
+                if (chunk.size() == chunkSize) {
+                    chunkConsumer.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunkConsumer.accept(chunk);
+            }
+        }
+    }
+
+    /**
+     * Converte un albero JSON in un oggetto Java del tipo specificato.
+     *
+     * @param node l'albero JSON da convertire
+     * @param objectClass la classe dell'oggetto di destinazione
+     * @param <T> il tipo dell'oggetto
+     * @return l'oggetto convertito
+     * @throws JsonProcessingException se l'albero non è convertibile nel tipo specificato
+     */
+    public static <T> T convert(JsonNode node, Class<T> objectClass) throws JsonProcessingException {
+        return objectMapper.treeToValue(node, objectClass);
+    }
+
+    /**
+     * Scrive una stringa nel file specificato, sostituendone atomicamente il contenuto.
      *
      * @param text la stringa di testo da scrivere nel file
      * @param file il file su cui scrivere
      * @throws IOException se si verifica un errore durante la scrittura del file
      */
     public static void writeFile(String text, File file) throws IOException {
-        // Usa un FileWriter per scrivere il contenuto nel file
-        try (FileWriter writer = new FileWriter(file)) {
-            // Scrive la stringa nel file
-            writer.write(text);
+        // Scrive la stringa codificata in UTF-8 nel file temporaneo
+        writeFileAtomically(file, outputStream -> outputStream.write(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Serializza un oggetto Java in JSON direttamente nel file specificato, sostituendone atomicamente il contenuto.
+     * Il JSON viene scritto in streaming sul file, senza costruire in memoria la stringa completa, in forma compatta
+     * o indentata in base a setCompactFileOutput.
+     *
+     * @param obj l'oggetto Java da serializzare
+     * @param file il file su cui scrivere
+     * @throws IOException se si verifica un errore durante la serializzazione o la scrittura del file
+     */
+    public static void writeJsonFile(Object obj, File file) throws IOException {
+        // Lo stream non deve essere chiuso da Jackson: il file va prima sincronizzato su disco
+        var writer = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (compactFileOutput) {
+            writer = writer.without(SerializationFeature.INDENT_OUTPUT);
+        }
+        var objectWriter = writer;
+        writeFileAtomically(file, outputStream -> objectWriter.writeValue(outputStream, obj));
+    }
+
+    /**
+     * Operazione di scrittura su uno stream, usata da writeFileAtomically.
+     */
+    @FunctionalInterface
+    public interface StreamWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Scrive un file in modo atomico: il contenuto viene scritto in un file temporaneo nella stessa cartella,
+     * sincronizzato su disco con FileChannel.force e poi rinominato sul file di destinazione.
+     * Se il file system non supporta la rinomina atomica viene eseguita una normale sostituzione.
+     *
+     * @param file il file di destinazione
+     * @param writer l'operazione che scrive il contenuto del file
+     * @throws IOException se si verifica un errore durante la scrittura o la rinomina
+     */
+    public static void writeFileAtomically(File file, StreamWriter writer) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        // Il file temporaneo viene creato con i permessi predefiniti, come il file che andrà a sostituire
+        Path tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), FILE_BUFFER_SIZE);
+                writer.write(outputStream);
+                outputStream.flush();
+                // Sincronizza il contenuto su disco prima di rendere visibile il nuovo file
+                channel.force(true);
+            }
+            try {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // Se la scrittura o la rinomina non sono andate a buon fine elimina il file temporaneo
+            Files.deleteIfExists(tempFile);
         }
     }
 
@@ -101,6 +273,19 @@ public class JsonUtils {
         return objectMapper.writeValueAsString(obj);
     }
 
+    /**
+     * Serializza un oggetto Java in una stringa JSON compatta, senza indentazione né a capo.
+     * Utile per scrivere un oggetto per riga (ad esempio nei file di log).
+     *
+     * @param obj l'oggetto Java da serializzare
+     * @return una stringa JSON su una sola riga
+     * @throws JsonProcessingException se si verifica un errore durante la serializzazione
+     */
+    public static String serializeCompact(Object obj) throws JsonProcessingException {
+        // Serializza l'oggetto disabilitando l'indentazione configurata nell'ObjectMapper
+        return objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT).writeValueAsString(obj);
+    }
+
     /**
      * Deserializza una stringa JSON in un oggetto Java di tipo specificato.
      *